@@ -9,6 +9,7 @@ import android.provider.Settings;
 import android.text.InputType;
 import android.text.TextUtils;
 import android.util.Size;
+import android.util.SparseBooleanArray;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.inputmethod.CompletionInfo;
@@ -29,21 +30,43 @@ import androidx.annotation.RequiresApi;
 import androidx.autofill.inline.UiVersions;
 import androidx.autofill.inline.v1.InlineSuggestionUi;
 
+import com.sinux.pocketboard.input.KeyEventPipeline;
 import com.sinux.pocketboard.input.SuggestionsManager;
+import com.sinux.pocketboard.input.connection.InputConnectionDispatcher;
+import com.sinux.pocketboard.input.connection.InstrumentedInputConnection;
+import com.sinux.pocketboard.input.connection.IpcAccounting;
+import com.sinux.pocketboard.input.connection.MirroredInputConnection;
+import com.sinux.pocketboard.input.connection.TextMirror;
+import com.sinux.pocketboard.input.editor.EditorProfile;
+import com.sinux.pocketboard.input.editor.EditorProfileManager;
+import com.sinux.pocketboard.input.editor.RawInputDetector;
 import com.sinux.pocketboard.input.handler.SymPadInputHandler;
 import com.sinux.pocketboard.input.handler.KeyboardInputHandler;
+import com.sinux.pocketboard.input.text.CapsModeResolver;
 import com.sinux.pocketboard.input.MetaKeyManager;
 import com.sinux.pocketboard.preferences.PreferencesHolder;
 import com.sinux.pocketboard.ui.InputView;
 import com.sinux.pocketboard.utils.InputUtils;
 import com.sinux.pocketboard.utils.ToastMessageUtils;
 
-import java.util.Arrays;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 
 public class PocketBoardIME extends InputMethodService {
 
+    /**
+     * State flags which decide the active stages of {@link KeyEventPipeline}
+     */
+    private static final int DIRECT_INPUT_STATE = 1;
+    private static final int CONNECTED_STATE = 1 << 1;
+    private static final int TEXT_INPUT_STATE = 1 << 2;
+    private static final int SYM_FIXED_STATE = 1 << 3;
+    private static final int EMOJI_PANEL_STATE = 1 << 4;
+    private static final int TEXT_STREAM_STATE = 1 << 5;
+
     private InputMethodManager inputMethodManager;
     private PreferencesHolder preferencesHolder;
     private MetaKeyManager metaKeyManager;
@@ -53,10 +76,25 @@ public class PocketBoardIME extends InputMethodService {
     private InputView inputView;
     private SuggestionsManager suggestionsManager;
 
+    private TextMirror textMirror;
+    private InputConnectionDispatcher inputConnectionDispatcher;
+    private MirroredInputConnection mirroredInputConnection;
+    private InputConnection mirroredInputConnectionTarget;
+    private IpcAccounting ipcAccounting;
+    private boolean mirroredInputConnectionInstrumented;
+    /**
+     * Keys which have been pressed behind dispatched edits, so their releases must follow the same way
+     */
+    private final SparseBooleanArray queuedPassedKeys = new SparseBooleanArray();
+
     private boolean autoCapitalization;
+    private CapsModeResolver capsModeResolver;
     private boolean symPadJustUsed;
 
-    private List<String> directInputEditors;
+    private EditorProfileManager editorProfileManager;
+    private EditorProfile editorProfile = EditorProfile.NONE;
+    private RawInputDetector rawInputDetector;
+    private KeyEventPipeline keyEventPipeline;
 
     @Override
     public void onCreate() {
@@ -64,18 +102,26 @@ public class PocketBoardIME extends InputMethodService {
 
         inputMethodManager = (InputMethodManager) getSystemService(INPUT_METHOD_SERVICE);
         preferencesHolder = new PreferencesHolder(this);
+        textMirror = new TextMirror();
+        inputConnectionDispatcher = new InputConnectionDispatcher("InputConnectionDispatcher");
+        ipcAccounting = IpcAccounting.getInstance();
+        mirroredInputConnection = new MirroredInputConnection(textMirror, inputConnectionDispatcher, ipcAccounting);
+        rawInputDetector = new RawInputDetector();
+        mirroredInputConnection.setTextEditListener(rawInputDetector::onEdit);
+        editorProfileManager = new EditorProfileManager(this);
 
         metaKeyManager = new MetaKeyManager(this);
         keyboardInputHandler = new KeyboardInputHandler(this);
         symPadInputHandler = new SymPadInputHandler(this);
         suggestionsManager = new SuggestionsManager(this, keyboardInputHandler);
-
-        directInputEditors = Arrays.asList(getResources().getStringArray(R.array.direct_input_editors));
+        keyEventPipeline = createKeyEventPipeline();
     }
 
     @Override
     public void onDestroy() {
         metaKeyManager.destroy();
+        keyboardInputHandler.destroy();
+        inputConnectionDispatcher.shutdown();
         super.onDestroy();
     }
 
@@ -100,23 +146,44 @@ public class PocketBoardIME extends InputMethodService {
     public void onStartInput(EditorInfo attribute, boolean restarting) {
         super.onStartInput(attribute, restarting);
         autoCapitalization = preferencesHolder.isAutoCapitalizationEnabled();
+        ipcAccounting.setEnabled(preferencesHolder.isIpcAccountingEnabled());
+        // Stage timing is reported along with editor calls
+        keyEventPipeline.setTimingEnabled(ipcAccounting.isEnabled());
 
         if (!restarting) {
             metaKeyManager.reset();
         }
 
-        InputMethodSubtype currentInputMethodSubtype = inputMethodManager.getCurrentInputMethodSubtype();
-        suggestionsManager.onStartInput(attribute, currentInputMethodSubtype);
+        editorProfile = editorProfileManager.getProfile(attribute);
+        rawInputDetector.reset();
 
-        int cursorPosition = -1;
-        InputConnection inputConnection = getCurrentInputConnection();
-        if (inputConnection != null) {
-            ExtractedText extractedText = inputConnection.getExtractedText(new ExtractedTextRequest(), 0);
-            if (extractedText != null) {
-                cursorPosition = Math.min(extractedText.selectionStart, extractedText.selectionEnd);
+        InputMethodSubtype currentInputMethodSubtype = inputMethodManager.getCurrentInputMethodSubtype();
+        suggestionsManager.onStartInput(editorProfile, currentInputMethodSubtype);
+        capsModeResolver = CapsModeResolver.forLocale(Locale.forLanguageTag(currentInputMethodSubtype.getLanguageTag()));
+
+        // Connection of the new editor is bound to the mirror by this call, so mirroring starts after it
+        InputConnection inputConnection = getMirroredInputConnection();
+
+        int selectionStart = attribute.initialSelStart;
+        int selectionEnd = attribute.initialSelEnd;
+        if ((selectionStart < 0 || selectionEnd < 0) && inputConnection != null) {
+            // Editor doesn't report initial selection, ask for as little text as possible to get it
+            ExtractedTextRequest request = new ExtractedTextRequest();
+            request.hintMaxChars = 1;
+            request.hintMaxLines = 1;
+            ExtractedText extractedText = inputConnection.getExtractedText(request, 0);
+            if (extractedText != null && extractedText.selectionStart >= 0 && extractedText.selectionEnd >= 0) {
+                selectionStart = extractedText.startOffset + extractedText.selectionStart;
+                selectionEnd = extractedText.startOffset + extractedText.selectionEnd;
             }
         }
-        keyboardInputHandler.onStartInput(attribute, suggestionsManager.isSuggestionsAllowed(), cursorPosition);
+        textMirror.startInput(selectionStart, selectionEnd);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && textMirror.isSelectionKnown()) {
+            seedTextMirror(attribute);
+        }
+
+        int cursorPosition = selectionStart >= 0 && selectionEnd >= 0 ? Math.min(selectionStart, selectionEnd) : -1;
+        keyboardInputHandler.onStartInput(attribute, editorProfile, suggestionsManager.isSuggestionsAllowed(), cursorPosition);
 
 
         updateMetaState();
@@ -131,6 +198,17 @@ public class PocketBoardIME extends InputMethodService {
         inputView.onStartInputView(attribute, currentInputMethodSubtype, suggestionsManager.isSuggestionsAllowed());
     }
 
+    @Override
+    public void onFinishInput() {
+        // Input may finish without the input view, e.g. when it has never been shown
+        keyboardInputHandler.onFinishInput();
+        keyboardInputHandler.cancelTextStream();
+        if (rawInputDetector.isSelectionUpdated()) {
+            editorProfileManager.onEditsAcknowledged(getCurrentInputEditorInfo());
+        }
+        super.onFinishInput();
+    }
+
     @Override
     public void onFinishInputView(boolean finishingInput) {
         super.onFinishInputView(finishingInput);
@@ -152,6 +230,7 @@ public class PocketBoardIME extends InputMethodService {
             ToastMessageUtils.showMessage(this, newSubtype.getNameResId());
         }
         suggestionsManager.onInputMethodSubtypeChanged(newSubtype);
+        capsModeResolver = CapsModeResolver.forLocale(Locale.forLanguageTag(newSubtype.getLanguageTag()));
         keyboardInputHandler.onInputMethodSubtypeChanged(newSubtype, suggestionsManager.isSuggestionsAllowed());
         if (inputView != null) {
             inputView.onInputMethodSubtypeChanged(newSubtype, suggestionsManager.isSuggestionsAllowed());
@@ -161,147 +240,349 @@ public class PocketBoardIME extends InputMethodService {
 
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
-        switch (keyCode) {
-            case KeyEvent.KEYCODE_BACK:
-                if (isInputViewShown()) {
-                    if (inputView.isEmojiPanelVisible()) {
-                        inputView.hideEmojiPanel();
-                    } else if (suggestionsManager.isInlineSuggestionsShown()) {
-                        suggestionsManager.cancelInlineSuggestions();
-                    } else {
-                        requestHideSelf(0);
-                    }
-                    return true;
-                }
-                return false;
-            case KeyEvent.KEYCODE_VOLUME_UP:
-            case KeyEvent.KEYCODE_VOLUME_DOWN:
-                return false;
+        if (!ipcAccounting.isEnabled()) {
+            return dispatchKeyDown(keyCode, event);
         }
 
-        InputConnection inputConnection = getCurrentInputConnection();
+        ipcAccounting.beginKeystroke("down " + KeyEvent.keyCodeToString(keyCode));
+        try {
+            return dispatchKeyDown(keyCode, event);
+        } finally {
+            ipcAccounting.endKeystroke();
+        }
+    }
+
+    private boolean dispatchKeyDown(int keyCode, KeyEvent event) {
+        boolean handled = handleKeyDown(keyCode, event);
+        if (!handled) {
+            // Key goes to the editor, it must not overtake edits which are still pending or being dispatched
+            keyboardInputHandler.flushPendingEdits();
+            handled = queuePassedKeyEvent(event);
+        }
+        if (!editorProfile.isRawInput() && rawInputDetector.isRawInputDetected()) {
+            switchToRawInputMode();
+        }
+        return handled;
+    }
+
+    /**
+     * Editor has ignored text edits, so it gets raw input for the rest of the session.
+     * It's remembered as a raw input editor only if that happens again in the next session
+     */
+    private void switchToRawInputMode() {
         EditorInfo editorInfo = getCurrentInputEditorInfo();
+        if (editorInfo == null) {
+            return;
+        }
+        editorProfileManager.onRawInputDetected(editorInfo);
+        editorProfile = editorProfile.withRawInput();
+        keyboardInputHandler.switchToRawInputMode(getMirroredInputConnection());
+    }
 
-        if (editorInfo != null && directInputEditors.contains(editorInfo.packageName))
-            return false;
+    private boolean handleKeyDown(int keyCode, KeyEvent event) {
+        InputConnection inputConnection = getMirroredInputConnection();
+        return keyEventPipeline.dispatchKeyDown(getKeyEventPipelineState(inputConnection), keyCode, event, inputConnection);
+    }
 
-        // Meta keys and shortcuts
-        if (metaKeyManager.handleKeyDown(keyCode, event, inputConnection))
-            return true;
+    @Override
+    public boolean onKeyUp(int keyCode, KeyEvent event) {
+        if (!ipcAccounting.isEnabled()) {
+            return handleKeyUp(keyCode, event);
+        }
 
-        // Skip CTRL+X shortcuts
-        if (event.isCtrlPressed() && !metaKeyManager.isSymFixed())
-            return false;
+        ipcAccounting.beginKeystroke("up " + KeyEvent.keyCodeToString(keyCode));
+        try {
+            return handleKeyUp(keyCode, event);
+        } finally {
+            ipcAccounting.endKeystroke();
+        }
+    }
+
+    private boolean handleKeyUp(int keyCode, KeyEvent event) {
+        InputConnection inputConnection = getMirroredInputConnection();
+        return keyEventPipeline.dispatchKeyUp(getKeyEventPipelineState(inputConnection), keyCode, event, inputConnection) ||
+                queuePassedKeyEvent(event);
+    }
 
-        if (inputConnection == null)
+    /**
+     * Key event which isn't handled by the IME is sent to the editor behind the edits which are still being dispatched,
+     * so the main thread doesn't wait for a slow editor to process them first
+     *
+     * @return true if the event has been queued, false if it can go to the editor directly
+     */
+    private boolean queuePassedKeyEvent(KeyEvent event) {
+        if (event.isSystem()) {
+            // Back and volume keys aren't editor input
             return false;
+        }
 
-        // Emulate D-pad and some media keys
-        if (metaKeyManager.isSymFixed()) {
-            keyboardInputHandler.resetComposing(inputConnection);
-            if (symPadInputHandler.handleKeyDown(keyCode, event, inputConnection,
-                    metaKeyManager.isShiftEnabled(), metaKeyManager.isAltEnabled())) {
-                symPadJustUsed = true;
-                return true;
-            }
+        int keyCode = event.getKeyCode();
+        boolean keyDown = event.getAction() == KeyEvent.ACTION_DOWN;
+        if (inputConnectionDispatcher.isIdle() && (keyDown || !queuedPassedKeys.get(keyCode))) {
+            return false;
         }
 
-        switch (keyCode) {
-            case KeyEvent.KEYCODE_ENTER:
-            case KeyEvent.KEYCODE_CTRL_LEFT:
-            case KeyEvent.KEYCODE_CTRL_RIGHT:
-                return false;
+        InputConnection inputConnection = getMirroredInputConnection();
+        if (inputConnection == null) {
+            queuedPassedKeys.delete(keyCode);
+            return false;
         }
+        if (keyDown) {
+            queuedPassedKeys.put(keyCode, true);
+        } else {
+            queuedPassedKeys.delete(keyCode);
+        }
+        // Framework may recycle the event once it's handled
+        inputConnection.sendKeyEvent(new KeyEvent(event));
+        return true;
+    }
 
-        // Handle text input in Keyboard mode
+    private int getKeyEventPipelineState(InputConnection inputConnection) {
+        int state = 0;
+        if (editorProfile.isDirectInput()) {
+            state |= DIRECT_INPUT_STATE;
+        }
+        if (inputConnection != null) {
+            state |= CONNECTED_STATE;
+        }
+        EditorInfo editorInfo = getCurrentInputEditorInfo();
         if (editorInfo != null && (editorInfo.inputType != InputType.TYPE_NULL || keyboardInputHandler.isInRawInputMode())) {
-            // Handle emoji shortcuts
-            if (inputView != null && inputView.isEmojiPanelVisible() && inputView.handleEmojiShortcut(keyCode)) {
-                return true;
+            state |= TEXT_INPUT_STATE;
+        }
+        if (metaKeyManager.isSymFixed()) {
+            state |= SYM_FIXED_STATE;
+        }
+        if (inputView != null && inputView.isEmojiPanelVisible()) {
+            state |= EMOJI_PANEL_STATE;
+        }
+        if (keyboardInputHandler.isStreamingText()) {
+            state |= TEXT_STREAM_STATE;
+        }
+        return state;
+    }
+
+    private KeyEventPipeline createKeyEventPipeline() {
+        KeyEventPipeline pipeline = new KeyEventPipeline();
+
+        pipeline.register("system keys", 0, 0, new KeyEventPipeline.Stage() {
+            @Override
+            public KeyEventPipeline.Result onKeyDown(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                switch (keyCode) {
+                    case KeyEvent.KEYCODE_BACK:
+                        if (isInputViewShown()) {
+                            if (inputView.isEmojiPanelVisible()) {
+                                inputView.hideEmojiPanel();
+                            } else if (suggestionsManager.isInlineSuggestionsShown()) {
+                                suggestionsManager.cancelInlineSuggestions();
+                            } else {
+                                requestHideSelf(0);
+                            }
+                            return KeyEventPipeline.Result.HANDLED;
+                        }
+                        return KeyEventPipeline.Result.PASSED;
+                    case KeyEvent.KEYCODE_VOLUME_UP:
+                    case KeyEvent.KEYCODE_VOLUME_DOWN:
+                        return KeyEventPipeline.Result.PASSED;
+                }
+                return KeyEventPipeline.Result.CONTINUE;
             }
-            // Handle input
-            if (keyboardInputHandler.handleKeyDown(keyCode, event, inputConnection,
-                    metaKeyManager.isShiftEnabled(), metaKeyManager.isAltEnabled())) {
-                // Show input view if it's hidden
-                if (!isInputViewShown()) {
-                    requestShowSelf(InputMethodManager.SHOW_FORCED);
+
+            @Override
+            public KeyEventPipeline.Result onKeyUp(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                switch (keyCode) {
+                    case KeyEvent.KEYCODE_VOLUME_UP:
+                    case KeyEvent.KEYCODE_VOLUME_DOWN:
+                        return KeyEventPipeline.Result.PASSED;
                 }
+                return KeyEventPipeline.Result.CONTINUE;
             }
-        } else {
-            return false;
-        }
+        });
 
-        return true;
-    }
+        // Large text is still being streamed to the editor, input would land inside it
+        pipeline.register("text stream", TEXT_STREAM_STATE, 0, new KeyEventPipeline.Stage() {
+            @Override
+            public KeyEventPipeline.Result onKeyDown(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                return KeyEventPipeline.Result.HANDLED;
+            }
 
-    @Override
-    public boolean onKeyUp(int keyCode, KeyEvent event) {
-        switch (keyCode) {
-            case KeyEvent.KEYCODE_VOLUME_UP:
-            case KeyEvent.KEYCODE_VOLUME_DOWN:
-                return false;
-        }
+            @Override
+            public KeyEventPipeline.Result onKeyUp(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                // Meta keys pressed before the stream must still be released
+                return KeyEvent.isModifierKey(keyCode) ? KeyEventPipeline.Result.CONTINUE : KeyEventPipeline.Result.HANDLED;
+            }
+        });
 
-        InputConnection inputConnection = getCurrentInputConnection();
-        EditorInfo editorInfo = getCurrentInputEditorInfo();
+        pipeline.register("direct input editor", DIRECT_INPUT_STATE, 0, new KeyEventPipeline.Stage() {
+            @Override
+            public KeyEventPipeline.Result onKeyDown(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                return KeyEventPipeline.Result.PASSED;
+            }
 
-        if (editorInfo != null && directInputEditors.contains(editorInfo.packageName))
-            return false;
+            @Override
+            public KeyEventPipeline.Result onKeyUp(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                return KeyEventPipeline.Result.PASSED;
+            }
+        });
+
+        // Meta keys and shortcuts
+        pipeline.register("meta keys", 0, 0, new KeyEventPipeline.Stage() {
+            @Override
+            public KeyEventPipeline.Result onKeyDown(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                return metaKeyManager.handleKeyDown(keyCode, event, inputConnection) ?
+                        KeyEventPipeline.Result.HANDLED : KeyEventPipeline.Result.CONTINUE;
+            }
+
+            @Override
+            public KeyEventPipeline.Result onKeyUp(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                if (!metaKeyManager.handleKeyUp(keyCode, event, inputConnection)) {
+                    return KeyEventPipeline.Result.CONTINUE;
+                }
 
-        // Meta keys
-        if (metaKeyManager.handleKeyUp(keyCode, event, inputConnection)) {
-            if (keyCode == KeyEvent.KEYCODE_SYM || keyCode == KeyEvent.KEYCODE_PICTSYMBOLS) {
-                if (!symPadJustUsed && !metaKeyManager.isSymFixed()) {
-                    // Toggle emoji panel on SYM release
-                    if (isInputViewShown()) {
-                        inputView.toggleEmojiPanel();
+                if (keyCode == KeyEvent.KEYCODE_SYM || keyCode == KeyEvent.KEYCODE_PICTSYMBOLS) {
+                    if (!symPadJustUsed && !metaKeyManager.isSymFixed()) {
+                        // Toggle emoji panel on SYM release
+                        if (isInputViewShown()) {
+                            inputView.toggleEmojiPanel();
+                        }
+                    } else {
+                        symPadJustUsed = false;
                     }
-                } else {
-                    symPadJustUsed = false;
                 }
+                return KeyEventPipeline.Result.HANDLED;
             }
-
-            return true;
-        }
+        });
 
         // Skip CTRL+X shortcuts
-        if (event.isCtrlPressed() && !metaKeyManager.isSymFixed())
-            return false;
+        pipeline.register("ctrl shortcuts", 0, SYM_FIXED_STATE, new KeyEventPipeline.Stage() {
+            @Override
+            public KeyEventPipeline.Result onKeyDown(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                return event.isCtrlPressed() ? KeyEventPipeline.Result.PASSED : KeyEventPipeline.Result.CONTINUE;
+            }
 
-        if (inputConnection == null)
-            return false;
+            @Override
+            public KeyEventPipeline.Result onKeyUp(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                return onKeyDown(keyCode, event, inputConnection);
+            }
+        });
 
         // Emulate D-pad and some media keys
-        if (metaKeyManager.isSymFixed() || symPadInputHandler.hasPressedKey(keyCode)) {
-            if (symPadInputHandler.handleKeyUp(keyCode, event, inputConnection,
-                    metaKeyManager.isShiftEnabled(), metaKeyManager.isAltEnabled())) {
-                return true;
+        pipeline.register("sympad", CONNECTED_STATE, 0, new KeyEventPipeline.Stage() {
+            @Override
+            public KeyEventPipeline.Result onKeyDown(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                if (metaKeyManager.isSymFixed()) {
+                    keyboardInputHandler.resetComposing(inputConnection);
+                    if (symPadInputHandler.handleKeyDown(keyCode, event, inputConnection,
+                            metaKeyManager.isShiftEnabled(), metaKeyManager.isAltEnabled())) {
+                        symPadJustUsed = true;
+                        return KeyEventPipeline.Result.HANDLED;
+                    }
+                }
+                return KeyEventPipeline.Result.CONTINUE;
             }
-        }
 
-        switch (keyCode) {
-            case KeyEvent.KEYCODE_ENTER:
-            case KeyEvent.KEYCODE_CTRL_LEFT:
-            case KeyEvent.KEYCODE_CTRL_RIGHT:
-                return false;
-        }
+            @Override
+            public KeyEventPipeline.Result onKeyUp(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                // Key may be released after SYM
+                if (metaKeyManager.isSymFixed() || symPadInputHandler.hasPressedKey(keyCode)) {
+                    if (symPadInputHandler.handleKeyUp(keyCode, event, inputConnection,
+                            metaKeyManager.isShiftEnabled(), metaKeyManager.isAltEnabled())) {
+                        return KeyEventPipeline.Result.HANDLED;
+                    }
+                }
+                return KeyEventPipeline.Result.CONTINUE;
+            }
+        });
+
+        pipeline.register("editor keys", CONNECTED_STATE, 0, new KeyEventPipeline.Stage() {
+            @Override
+            public KeyEventPipeline.Result onKeyDown(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                switch (keyCode) {
+                    case KeyEvent.KEYCODE_ENTER:
+                    case KeyEvent.KEYCODE_CTRL_LEFT:
+                    case KeyEvent.KEYCODE_CTRL_RIGHT:
+                        return KeyEventPipeline.Result.PASSED;
+                }
+                return KeyEventPipeline.Result.CONTINUE;
+            }
+
+            @Override
+            public KeyEventPipeline.Result onKeyUp(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                return onKeyDown(keyCode, event, inputConnection);
+            }
+        });
 
-        return editorInfo != null && (editorInfo.inputType != InputType.TYPE_NULL || keyboardInputHandler.isInRawInputMode()) &&
-                keyboardInputHandler.handleKeyUp(keyCode, event, inputConnection,
-                        metaKeyManager.isShiftEnabled(), metaKeyManager.isAltEnabled());
+        pipeline.register("emoji shortcuts", CONNECTED_STATE | TEXT_INPUT_STATE | EMOJI_PANEL_STATE, 0,
+                (keyCode, event, inputConnection) -> inputView.handleEmojiShortcut(keyCode) ?
+                        KeyEventPipeline.Result.HANDLED : KeyEventPipeline.Result.CONTINUE);
+
+        // Handle text input in Keyboard mode
+        pipeline.register("keyboard", CONNECTED_STATE | TEXT_INPUT_STATE, 0, new KeyEventPipeline.Stage() {
+            @Override
+            public KeyEventPipeline.Result onKeyDown(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                if (keyboardInputHandler.handleKeyDown(keyCode, event, inputConnection,
+                        metaKeyManager.isShiftEnabled(), metaKeyManager.isAltEnabled())) {
+                    // Show input view if it's hidden
+                    if (!isInputViewShown()) {
+                        requestShowSelf(InputMethodManager.SHOW_FORCED);
+                    }
+                }
+                return KeyEventPipeline.Result.HANDLED;
+            }
+
+            @Override
+            public KeyEventPipeline.Result onKeyUp(int keyCode, KeyEvent event, InputConnection inputConnection) {
+                return keyboardInputHandler.handleKeyUp(keyCode, event, inputConnection,
+                        metaKeyManager.isShiftEnabled(), metaKeyManager.isAltEnabled()) ?
+                        KeyEventPipeline.Result.HANDLED : KeyEventPipeline.Result.PASSED;
+            }
+        });
+
+        return pipeline;
     }
 
     @Override
     public void onUpdateSelection(int oldSelStart, int oldSelEnd, int newSelStart, int newSelEnd, int candidatesStart, int candidatesEnd) {
         super.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart, newSelEnd, candidatesStart, candidatesEnd);
-        keyboardInputHandler.onUpdateSelection(getCurrentInputConnection(), newSelStart, newSelEnd, candidatesEnd);
+        if (!ipcAccounting.isEnabled()) {
+            handleSelectionUpdate(newSelStart, newSelEnd, candidatesStart, candidatesEnd);
+            return;
+        }
+
+        ipcAccounting.beginKeystroke("onUpdateSelection");
+        try {
+            handleSelectionUpdate(newSelStart, newSelEnd, candidatesStart, candidatesEnd);
+        } finally {
+            ipcAccounting.endKeystroke();
+        }
+    }
+
+    private void handleSelectionUpdate(int newSelStart, int newSelEnd, int candidatesStart, int candidatesEnd) {
+        rawInputDetector.onSelectionUpdate();
+        boolean ownUpdate = textMirror.onUpdateSelection(newSelStart, newSelEnd, candidatesStart, candidatesEnd);
+        keyboardInputHandler.onUpdateSelection(getMirroredInputConnection(), newSelStart, newSelEnd, candidatesEnd, ownUpdate);
         updateMetaState();
         suggestionsManager.update();
     }
 
     public void moveCursor(int offset, int metaState) {
-        InputConnection ic = getCurrentInputConnection();
-        if (ic == null || offset == 0) return;
+        if (!ipcAccounting.isEnabled()) {
+            sendCursorMovement(offset, metaState);
+            return;
+        }
+
+        ipcAccounting.beginKeystroke("moveCursor");
+        try {
+            sendCursorMovement(offset, metaState);
+        } finally {
+            ipcAccounting.endKeystroke();
+        }
+    }
+
+    private void sendCursorMovement(int offset, int metaState) {
+        InputConnection ic = getMirroredInputConnection();
+        if (ic == null || offset == 0 || keyboardInputHandler.isStreamingText()) return;
+
+        keyboardInputHandler.flushPendingEdits();
 
         long eventTime = SystemClock.uptimeMillis();
         int repeatCount = Math.abs(offset);
@@ -334,6 +615,22 @@ public class PocketBoardIME extends InputMethodService {
             ic.sendKeyEvent(InputUtils.createKeyEvent(eventTime, KeyEvent.KEYCODE_SHIFT_LEFT, KeyEvent.ACTION_UP, 0, 0));
     }
 
+    /**
+     * Fills the mirror with initial text sent along with {@link EditorInfo}, so first lookups don't need IPC
+     */
+    @RequiresApi(Build.VERSION_CODES.R)
+    private void seedTextMirror(EditorInfo attribute) {
+        // Initial text may be trimmed by the editor, so shorter text doesn't mean the edge of the document
+        CharSequence textBeforeCursor = attribute.getInitialTextBeforeCursor(TextMirror.SYNC_LENGTH, 0);
+        if (textBeforeCursor != null) {
+            textMirror.setTextBeforeCursor(textBeforeCursor, textBeforeCursor.length());
+        }
+        CharSequence textAfterCursor = attribute.getInitialTextAfterCursor(TextMirror.SYNC_LENGTH, 0);
+        if (textAfterCursor != null) {
+            textMirror.setTextAfterCursor(textAfterCursor, textAfterCursor.length());
+        }
+    }
+
     @Override
     public void onDisplayCompletions(CompletionInfo[] completions) {
         suggestionsManager.update(completions);
@@ -394,9 +691,9 @@ public class PocketBoardIME extends InputMethodService {
         if (autoCapitalization) {
             EditorInfo editorInfo = getCurrentInputEditorInfo();
             if (editorInfo != null && (editorInfo.inputType != InputType.TYPE_NULL || keyboardInputHandler.isInRawInputMode())) {
-                InputConnection inputConnection = getCurrentInputConnection();
+                InputConnection inputConnection = getMirroredInputConnection();
                 if (inputConnection != null) {
-                    if (inputConnection.getCursorCapsMode(TextUtils.CAP_MODE_SENTENCES) > 0 &&
+                    if (getCursorCapsMode(inputConnection, editorInfo) > 0 &&
                             InputUtils.isSuggestionAllowedEditor(editorInfo)) {
                         metaKeyManager.enableShift();
                     } else {
@@ -411,6 +708,42 @@ public class PocketBoardIME extends InputMethodService {
         }
     }
 
+    private int getCursorCapsMode(InputConnection inputConnection, EditorInfo editorInfo) {
+        int reqModes = CapsModeResolver.getRequestedCapsModes(editorInfo.inputType);
+        if (capsModeResolver != null && textMirror.isSelectionKnown()) {
+            // Served by the mirror, or re-syncs it if the text around the cursor is unknown
+            CharSequence textBeforeCursor = inputConnection.getTextBeforeCursor(CapsModeResolver.LOOKUP_LENGTH, 0);
+            if (textBeforeCursor != null) {
+                return capsModeResolver.getCapsMode(textBeforeCursor,
+                        textBeforeCursor.length() < CapsModeResolver.LOOKUP_LENGTH, reqModes);
+            }
+        }
+        return inputConnection.getCursorCapsMode(reqModes);
+    }
+
+    /**
+     * Connection for the IME's own input handling: edits are mirrored and sent in order by the dispatcher thread,
+     * text reads are served from the local mirror when possible. Framework helpers keep using
+     * {@link #getCurrentInputConnection()}, they aren't ordered with the IME's edits
+     *
+     * @return mirrored connection to the current editor
+     */
+    public InputConnection getMirroredInputConnection() {
+        InputConnection inputConnection = getCurrentInputConnection();
+        if (inputConnection == null || mirroredInputConnection == null) {
+            return inputConnection;
+        }
+        if (inputConnection != mirroredInputConnectionTarget || ipcAccounting.isEnabled() != mirroredInputConnectionInstrumented) {
+            // Connection has been restarted, its text must be read again
+            mirroredInputConnectionTarget = inputConnection;
+            mirroredInputConnectionInstrumented = ipcAccounting.isEnabled();
+            mirroredInputConnection.setTarget(mirroredInputConnectionInstrumented ?
+                    new InstrumentedInputConnection(inputConnection, ipcAccounting) : inputConnection);
+            textMirror.invalidate();
+        }
+        return mirroredInputConnection;
+    }
+
     public InputMethodManager getInputMethodManager() {
         return inputMethodManager;
     }
@@ -427,6 +760,33 @@ public class PocketBoardIME extends InputMethodService {
         return suggestionsManager;
     }
 
+    public KeyEventPipeline getKeyEventPipeline() {
+        return keyEventPipeline;
+    }
+
+    public TextMirror getTextMirror() {
+        return textMirror;
+    }
+
+    /**
+     * Reports editor calls and key event stages, e.g. by
+     * {@code adb shell dumpsys activity service com.sinux.pocketboard/.PocketBoardIME}
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter fout, String[] args) {
+        super.dump(fd, fout, args);
+
+        fout.println("Editor calls" + (ipcAccounting.isEnabled() ? ":" : " (accounting is disabled):"));
+        fout.print(ipcAccounting.dump());
+
+        fout.println("Key event stages" + (keyEventPipeline.isTimingEnabled() ? ":" : " (timing is disabled):"));
+        for (KeyEventPipeline.StageStats stage : keyEventPipeline.getStats()) {
+            fout.printf(Locale.ROOT, "  %s: %d events, %d consumed, %d us total%n", stage.getName(),
+                    stage.getEventCount(), stage.getConsumedCount(), stage.getTotalTimeNanos() / 1000);
+        }
+        fout.println("  active stages rebuilt " + keyEventPipeline.getRebuildCount() + " times");
+    }
+
     public KeyboardInputHandler getKeyboardInputHandler() {
         return keyboardInputHandler;
     }
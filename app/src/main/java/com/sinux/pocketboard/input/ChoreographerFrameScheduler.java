@@ -0,0 +1,34 @@
+package com.sinux.pocketboard.input;
+
+import android.view.Choreographer;
+
+/**
+ * Runs a callback on the next display frame of the main thread, one instance serves one callback at a time
+ */
+public class ChoreographerFrameScheduler implements FrameUpdateCoalescer.FrameScheduler {
+
+    private final Choreographer choreographer;
+    private final Choreographer.FrameCallback frameCallback;
+
+    private Runnable callback;
+
+    public ChoreographerFrameScheduler() {
+        choreographer = Choreographer.getInstance();
+        frameCallback = frameTimeNanos -> {
+            if (callback != null) {
+                callback.run();
+            }
+        };
+    }
+
+    @Override
+    public void postFrameCallback(Runnable callback) {
+        this.callback = callback;
+        choreographer.postFrameCallback(frameCallback);
+    }
+
+    @Override
+    public void removeFrameCallback(Runnable callback) {
+        choreographer.removeFrameCallback(frameCallback);
+    }
+}
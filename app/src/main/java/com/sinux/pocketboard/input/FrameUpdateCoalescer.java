@@ -0,0 +1,74 @@
+package com.sinux.pocketboard.input;
+
+/**
+ * Merges update requests made within one display frame into a single update performed on the next frame.
+ * Pending update can be performed right away with {@link #flush()}, e.g. when a word is committed
+ */
+public final class FrameUpdateCoalescer {
+
+    public interface FrameScheduler {
+
+        void postFrameCallback(Runnable callback);
+
+        void removeFrameCallback(Runnable callback);
+    }
+
+    private final FrameScheduler frameScheduler;
+    private final Runnable update;
+    private final Runnable frameCallback;
+
+    private boolean pending;
+    private long requestedCount;
+    private long performedCount;
+
+    public FrameUpdateCoalescer(FrameScheduler frameScheduler, Runnable update) {
+        this.frameScheduler = frameScheduler;
+        this.update = update;
+        frameCallback = this::flush;
+    }
+
+    public void request() {
+        requestedCount++;
+        if (!pending) {
+            pending = true;
+            frameScheduler.postFrameCallback(frameCallback);
+        }
+    }
+
+    /**
+     * Performs pending update now
+     */
+    public void flush() {
+        if (pending) {
+            pending = false;
+            frameScheduler.removeFrameCallback(frameCallback);
+            performedCount++;
+            update.run();
+        }
+    }
+
+    /**
+     * Drops pending update, e.g. when newer state has been sent by other means
+     */
+    public void cancel() {
+        if (pending) {
+            pending = false;
+            frameScheduler.removeFrameCallback(frameCallback);
+        }
+    }
+
+    public boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * @return number of requested updates, each of them would be a separate update without coalescing
+     */
+    public long getRequestedCount() {
+        return requestedCount;
+    }
+
+    public long getPerformedCount() {
+        return performedCount;
+    }
+}
@@ -0,0 +1,202 @@
+package com.sinux.pocketboard.input;
+
+import android.view.KeyEvent;
+import android.view.inputmethod.InputConnection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered chain of key event stages. Each stage is registered once along with the state flags it needs,
+ * the list of stages which can consume events is rebuilt only when the state changes,
+ * so an event walks just these stages. Events are counted per stage for profiling,
+ * time spent is measured only when {@link #setTimingEnabled(boolean) enabled}
+ */
+public final class KeyEventPipeline {
+
+    public enum Result {
+        /**
+         * Event goes to the next stage
+         */
+        CONTINUE,
+        /**
+         * Event is consumed
+         */
+        HANDLED,
+        /**
+         * Event goes to the editor, next stages are skipped
+         */
+        PASSED
+    }
+
+    public interface Stage {
+
+        Result onKeyDown(int keyCode, KeyEvent event, InputConnection inputConnection);
+
+        default Result onKeyUp(int keyCode, KeyEvent event, InputConnection inputConnection) {
+            return Result.CONTINUE;
+        }
+    }
+
+    private final List<StageStats> stages;
+
+    private StageStats[] activeStages;
+    private int activeState;
+    private int rebuildCount;
+    private boolean timingEnabled;
+
+    public KeyEventPipeline() {
+        stages = new ArrayList<>();
+        activeStages = new StageStats[0];
+        activeState = -1;
+    }
+
+    /**
+     * Stages are called in order of registration
+     *
+     * @param requiredState state flags which all must be set for the stage to be active
+     * @param excludedState state flags which all must be cleared for the stage to be active
+     */
+    public void register(String name, int requiredState, int excludedState, Stage stage) {
+        stages.add(new StageStats(name, requiredState, excludedState, stage));
+        // Rebuild on next event
+        activeState = -1;
+    }
+
+    /**
+     * @param state current state flags, e.g. editor type, meta keys and visible panels
+     * @return true if the event has been consumed by a stage
+     */
+    public boolean dispatchKeyDown(int state, int keyCode, KeyEvent event, InputConnection inputConnection) {
+        return dispatch(state, true, keyCode, event, inputConnection);
+    }
+
+    public boolean dispatchKeyUp(int state, int keyCode, KeyEvent event, InputConnection inputConnection) {
+        return dispatch(state, false, keyCode, event, inputConnection);
+    }
+
+    /**
+     * Timing costs two clock reads per stage on every event, so it's enabled only while somebody reads it
+     */
+    public void setTimingEnabled(boolean timingEnabled) {
+        this.timingEnabled = timingEnabled;
+    }
+
+    public boolean isTimingEnabled() {
+        return timingEnabled;
+    }
+
+    public List<StageStats> getStats() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    public void resetStats() {
+        for (StageStats stage : stages) {
+            stage.reset();
+        }
+        rebuildCount = 0;
+    }
+
+    /**
+     * @return how many times the list of active stages has been rebuilt
+     */
+    public int getRebuildCount() {
+        return rebuildCount;
+    }
+
+    private boolean dispatch(int state, boolean down, int keyCode, KeyEvent event, InputConnection inputConnection) {
+        if (state != activeState) {
+            rebuildActiveStages(state);
+        }
+
+        for (StageStats stage : activeStages) {
+            Result result;
+            if (timingEnabled) {
+                long startTime = System.nanoTime();
+                result = call(stage.stage, down, keyCode, event, inputConnection);
+                stage.totalTimeNanos += System.nanoTime() - startTime;
+            } else {
+                result = call(stage.stage, down, keyCode, event, inputConnection);
+            }
+            stage.record(result);
+            if (result != Result.CONTINUE) {
+                return result == Result.HANDLED;
+            }
+        }
+        return false;
+    }
+
+    private static Result call(Stage stage, boolean down, int keyCode, KeyEvent event, InputConnection inputConnection) {
+        return down ? stage.onKeyDown(keyCode, event, inputConnection) : stage.onKeyUp(keyCode, event, inputConnection);
+    }
+
+    private void rebuildActiveStages(int state) {
+        List<StageStats> active = new ArrayList<>(stages.size());
+        for (StageStats stage : stages) {
+            if ((state & stage.requiredState) == stage.requiredState && (state & stage.excludedState) == 0) {
+                active.add(stage);
+            }
+        }
+        activeStages = active.toArray(new StageStats[0]);
+        activeState = state;
+        rebuildCount++;
+    }
+
+    public static final class StageStats {
+
+        private final String name;
+        private final int requiredState;
+        private final int excludedState;
+        private final Stage stage;
+
+        private long eventCount;
+        private long consumedCount;
+        private long totalTimeNanos;
+
+        private StageStats(String name, int requiredState, int excludedState, Stage stage) {
+            this.name = name;
+            this.requiredState = requiredState;
+            this.excludedState = excludedState;
+            this.stage = stage;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return number of events which have reached the stage
+         */
+        public long getEventCount() {
+            return eventCount;
+        }
+
+        /**
+         * @return number of events which have been handled or passed to the editor by the stage
+         */
+        public long getConsumedCount() {
+            return consumedCount;
+        }
+
+        /**
+         * @return time spent in the stage while timing has been enabled
+         */
+        public long getTotalTimeNanos() {
+            return totalTimeNanos;
+        }
+
+        private void record(Result result) {
+            eventCount++;
+            if (result != Result.CONTINUE) {
+                consumedCount++;
+            }
+        }
+
+        private void reset() {
+            eventCount = 0;
+            consumedCount = 0;
+            totalTimeNanos = 0;
+        }
+    }
+}
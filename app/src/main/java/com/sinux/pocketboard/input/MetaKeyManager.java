@@ -175,6 +175,9 @@ public class MetaKeyManager {
         if (!event.isShiftPressed() || isSymFixed() || inputConnection == null)
             return false;
 
+        // Shortcut must not overtake edits which are still pending
+        pocketBoardIME.getKeyboardInputHandler().flushPendingEdits();
+
         if (event.getRepeatCount() == 0) {
             shortcutKeysUsed.add(targetKeyCode);
             inputConnection.sendKeyEvent(InputUtils.translateKeyEvent(event, metaKeyCode, KeyEvent.ACTION_DOWN, metaState));
@@ -9,7 +9,6 @@ import android.provider.UserDictionary;
 import android.text.TextUtils;
 import android.view.View;
 import android.view.inputmethod.CompletionInfo;
-import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InlineSuggestion;
 import android.view.inputmethod.InputMethodSubtype;
 import android.view.textservice.SentenceSuggestionsInfo;
@@ -22,12 +21,12 @@ import androidx.annotation.RequiresApi;
 
 import com.sinux.pocketboard.PocketBoardIME;
 import com.sinux.pocketboard.R;
+import com.sinux.pocketboard.input.editor.EditorProfile;
 import com.sinux.pocketboard.input.handler.KeyboardInputHandler;
 import com.sinux.pocketboard.preferences.PreferencesHolder;
 import com.sinux.pocketboard.ui.InputView;
 import com.sinux.pocketboard.ui.SuggestionView;
 import com.sinux.pocketboard.utils.CharacterUtils;
-import com.sinux.pocketboard.utils.InputUtils;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -48,6 +47,10 @@ public class SuggestionsManager implements SuggestionView.OnClickListener,
     private final int suggestionsCount;
     private final List<CharSequence> dictionarySuggestions;
     private final List<CharSequence> spellcheckerSuggestions;
+    /**
+     * Suggestions are refreshed once per frame, intermediate composing states of a typing burst are skipped
+     */
+    private final FrameUpdateCoalescer updateCoalescer;
 
     private InputView inputView;
     private SpellCheckerSession spellCheckerSession;
@@ -67,15 +70,16 @@ public class SuggestionsManager implements SuggestionView.OnClickListener,
         suggestionsCount = pocketBoardIME.getResources().getInteger(R.integer.suggestions_count);
         dictionarySuggestions = new ArrayList<>(suggestionsCount);
         spellcheckerSuggestions = new ArrayList<>(suggestionsCount);
+        updateCoalescer = new FrameUpdateCoalescer(new ChoreographerFrameScheduler(), this::performUpdate);
     }
 
     public void setInputView(InputView inputView) {
         this.inputView = inputView;
     }
 
-    public void onStartInput(EditorInfo attribute, InputMethodSubtype currentInputMethodSubtype) {
+    public void onStartInput(EditorProfile editorProfile, InputMethodSubtype currentInputMethodSubtype) {
         disallowSuggestions();
-        var suggestionAllowedEditor = InputUtils.isSuggestionAllowedEditor(attribute) && !InputUtils.isNumericEditor(attribute);
+        var suggestionAllowedEditor = editorProfile.isSuggestionsAllowed();
         var suggestionsPanelVisible = pocketBoardIME.isShouldShowIme() && preferencesHolder.isShowSuggestionsEnabled();
         dictionarySuggestionsAllowed = suggestionAllowedEditor && (suggestionsPanelVisible || preferencesHolder.isDictShortcutsEnabled());
         spellcheckerSuggestionsAllowed = suggestionAllowedEditor && (suggestionsPanelVisible || preferencesHolder.isAutoCorrectionEnabled()) &&
@@ -89,6 +93,7 @@ public class SuggestionsManager implements SuggestionView.OnClickListener,
     }
 
     public void onFinishInput() {
+        updateCoalescer.cancel();
         closeSpellCheckerSession();
     }
 
@@ -115,9 +120,28 @@ public class SuggestionsManager implements SuggestionView.OnClickListener,
             return;
         }
 
+        updateCoalescer.request();
+    }
+
+    /**
+     * Performs pending update now, e.g. before current suggestion is applied
+     */
+    public void flushUpdate() {
+        updateCoalescer.flush();
+    }
+
+    public FrameUpdateCoalescer getUpdateCoalescer() {
+        return updateCoalescer;
+    }
+
+    private void performUpdate() {
+        if (isPaused) {
+            return;
+        }
+
         var composingText = keyboardInputHandler.getCurrentComposingText();
 
-        if (TextUtils.isEmpty(composingText)) {
+        if (TextUtils.isEmpty(composingText) || !keyboardInputHandler.isComposingTextLexical()) {
             clear();
             return;
         }
@@ -302,6 +326,7 @@ public class SuggestionsManager implements SuggestionView.OnClickListener,
 
     public void pause() {
         isPaused = true;
+        updateCoalescer.cancel();
         clear();
     }
 
@@ -326,7 +351,7 @@ public class SuggestionsManager implements SuggestionView.OnClickListener,
         }
 
         if (!TextUtils.isEmpty(text)) {
-            keyboardInputHandler.applySuggestion(text, pocketBoardIME.getCurrentInputConnection(), true);
+            keyboardInputHandler.applySuggestion(text, pocketBoardIME.getMirroredInputConnection(), true);
         }
     }
 
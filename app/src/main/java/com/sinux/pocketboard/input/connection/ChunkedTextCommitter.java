@@ -0,0 +1,124 @@
+package com.sinux.pocketboard.input.connection;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.inputmethod.InputConnection;
+
+import com.sinux.pocketboard.utils.CharacterUtils;
+
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+/**
+ * Streams large text to the editor in chunks, so neither a single binder transaction nor the editor gets
+ * the whole text at once. The stream has its own queue: next chunk is sent only when the editor reports
+ * the selection expected after the previous one or the acknowledgement timeout expires.
+ * The stream is never sent at once, so any other edit must wait until it's not {@link #isPending()},
+ * otherwise it would land inside the streamed text
+ */
+public class ChunkedTextCommitter {
+
+    /**
+     * Maximal time to wait for the editor to acknowledge a chunk, long enough for the editor to lay out the chunk
+     */
+    public static final long CHUNK_ACK_TIMEOUT_MS = 500;
+
+    private final Supplier<InputConnection> inputConnectionSupplier;
+    private final TextMirror textMirror;
+    private final int chunkLength;
+    private final Handler handler;
+    private final ArrayDeque<String> pendingChunks;
+    private final Runnable ackTimeoutRunnable;
+
+    private boolean awaitingAck;
+    private int expectedSelection;
+
+    public ChunkedTextCommitter(Supplier<InputConnection> inputConnectionSupplier, TextMirror textMirror, int chunkLength) {
+        this.inputConnectionSupplier = inputConnectionSupplier;
+        this.textMirror = textMirror;
+        this.chunkLength = chunkLength;
+        handler = new Handler(Looper.getMainLooper());
+        pendingChunks = new ArrayDeque<>();
+        ackTimeoutRunnable = this::sendNextChunk;
+        expectedSelection = TextMirror.UNKNOWN;
+    }
+
+    /**
+     * Text is appended to the stream, the first chunk is sent right away if the stream is idle
+     */
+    public void commitText(CharSequence text) {
+        appendText(text);
+        start();
+    }
+
+    /**
+     * Text is appended to the stream, but it's sent only after {@link #start()},
+     * e.g. when the stream has to wait for key events sent before it
+     */
+    public void appendText(CharSequence text) {
+        String committedText = text.toString();
+        int start = 0;
+        while (start < committedText.length()) {
+            int end = CharacterUtils.getChunkEnd(committedText, start, chunkLength);
+            pendingChunks.add(committedText.substring(start, end));
+            start = end;
+        }
+    }
+
+    public void start() {
+        if (!awaitingAck) {
+            sendNextChunk();
+        }
+    }
+
+    /**
+     * @return true until the last chunk has been sent
+     */
+    public boolean isPending() {
+        return awaitingAck || !pendingChunks.isEmpty();
+    }
+
+    /**
+     * Selection updates of other edits don't release the next chunk, only the one expected after the last chunk.
+     * If the selection couldn't be predicted any update does
+     */
+    public void onUpdateSelection(int newSelStart, int newSelEnd) {
+        if (awaitingAck && (expectedSelection == TextMirror.UNKNOWN ||
+                (newSelStart == expectedSelection && newSelEnd == expectedSelection))) {
+            handler.removeCallbacks(ackTimeoutRunnable);
+            sendNextChunk();
+        }
+    }
+
+    /**
+     * Drops the rest of the stream, e.g. when the editor is gone
+     */
+    public void cancel() {
+        handler.removeCallbacks(ackTimeoutRunnable);
+        awaitingAck = false;
+        pendingChunks.clear();
+    }
+
+    private void sendNextChunk() {
+        awaitingAck = false;
+        String chunk = pendingChunks.poll();
+        if (chunk == null) {
+            return;
+        }
+
+        InputConnection inputConnection = inputConnectionSupplier.get();
+        if (inputConnection == null) {
+            pendingChunks.clear();
+            return;
+        }
+        inputConnection.commitText(chunk, 1);
+
+        if (!pendingChunks.isEmpty()) {
+            // Mirror has already applied the chunk, so it knows where the editor's cursor will be
+            expectedSelection = textMirror.isSelectionKnown() && textMirror.hasEmptySelection() ?
+                    textMirror.getSelectionEnd() : TextMirror.UNKNOWN;
+            awaitingAck = true;
+            handler.postDelayed(ackTimeoutRunnable, CHUNK_ACK_TIMEOUT_MS);
+        }
+    }
+}
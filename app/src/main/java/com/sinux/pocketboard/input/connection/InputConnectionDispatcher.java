@@ -0,0 +1,130 @@
+package com.sinux.pocketboard.input.connection;
+
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Runs operations on a single dedicated thread in the order they have been dispatched, so calls to a slow editor
+ * don't block the thread which dispatches them. Producers never take a lock: operations go to a lock-free queue
+ * and the consumer thread is parked while the queue is empty
+ */
+public final class InputConnectionDispatcher {
+
+    private static final String TAG = "InputConnectionDispatcher";
+
+    private final ConcurrentLinkedQueue<Runnable> operations;
+    /**
+     * Operations which have been dispatched but not completed yet
+     */
+    private final AtomicInteger pendingCount;
+    private final Thread thread;
+
+    private volatile Thread idleWaiter;
+    private volatile Consumer<RuntimeException> failureListener;
+    private volatile boolean shutdown;
+
+    public InputConnectionDispatcher(String threadName) {
+        operations = new ConcurrentLinkedQueue<>();
+        pendingCount = new AtomicInteger();
+        thread = new Thread(this::runOperations, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void dispatch(Runnable operation) {
+        if (shutdown) {
+            return;
+        }
+        pendingCount.incrementAndGet();
+        operations.add(operation);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Waits until all dispatched operations are completed, must be called before anything which has to be ordered
+     * after them is done on another thread (e.g. a read from the editor)
+     *
+     * @return false if the operations haven't been completed within given time
+     */
+    public boolean awaitIdle(long timeoutMs) {
+        if (pendingCount.get() == 0) {
+            return true;
+        }
+
+        idleWaiter = Thread.currentThread();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (pendingCount.get() > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            return true;
+        } finally {
+            idleWaiter = null;
+        }
+    }
+
+    /**
+     * @param failureListener called on the dispatcher thread when an operation fails,
+     *                        e.g. to drop the state which assumed its success
+     */
+    public void setFailureListener(Consumer<RuntimeException> failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    public boolean isIdle() {
+        return pendingCount.get() == 0;
+    }
+
+    /**
+     * Stops the thread, operations which haven't been started yet are dropped
+     */
+    public void shutdown() {
+        shutdown = true;
+        LockSupport.unpark(thread);
+    }
+
+    private void runOperations() {
+        while (!shutdown) {
+            Runnable operation = operations.poll();
+            if (operation == null) {
+                // Permit from dispatch() makes park return immediately, so wake-ups are never lost
+                LockSupport.park(this);
+                continue;
+            }
+
+            try {
+                operation.run();
+            } catch (RuntimeException e) {
+                // Editor may be gone at any moment, the next operations must still run
+                Log.w(TAG, "Operation failed", e);
+                Consumer<RuntimeException> listener = failureListener;
+                if (listener != null) {
+                    listener.accept(e);
+                }
+            } finally {
+                if (pendingCount.decrementAndGet() == 0) {
+                    Thread waiter = idleWaiter;
+                    if (waiter != null) {
+                        LockSupport.unpark(waiter);
+                    }
+                }
+            }
+        }
+
+        operations.clear();
+        pendingCount.set(0);
+        Thread waiter = idleWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.sinux.pocketboard.input.connection;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.KeyCharacterMap;
+import android.view.KeyEvent;
+import android.view.inputmethod.InputConnection;
+
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+/**
+ * Sends synthesized key events and commits to the editor strictly in order. Editors which handle raw key events
+ * (e.g. terminals) may process a key event after a commit sent later, so each step is released only when
+ * the previous one is acknowledged by a selection update or the acknowledgement timeout expires.
+ * Editors which never report selection updates are paced by the timeout alone.
+ * The main thread is never blocked while waiting
+ */
+public class InputEventSequencer {
+
+    /**
+     * Maximal time to wait for the editor to acknowledge a step. It's the delay which used to separate the steps
+     * by sleeping on the main thread, so editors which never report selection updates (e.g. Termux) still get
+     * the steps at that pace, just without the main thread being blocked
+     */
+    public static final long ACK_TIMEOUT_MS = 10;
+
+    private final Supplier<InputConnection> inputConnectionSupplier;
+    private final Handler handler;
+    private final ArrayDeque<Runnable> pendingSteps;
+    private final Runnable ackTimeoutRunnable;
+
+    private boolean awaitingAck;
+
+    public InputEventSequencer(Supplier<InputConnection> inputConnectionSupplier) {
+        this.inputConnectionSupplier = inputConnectionSupplier;
+        handler = new Handler(Looper.getMainLooper());
+        pendingSteps = new ArrayDeque<>();
+        ackTimeoutRunnable = this::releaseNextStep;
+    }
+
+    /**
+     * Sends key events the way {@code InputMethodService.sendDownUpKeyEvents} does, but through the given connection,
+     * so they stay ordered with the edits sent through it
+     */
+    public void sendDownUpKeyEvents(int keyCode) {
+        enqueue(() -> {
+            InputConnection inputConnection = inputConnectionSupplier.get();
+            if (inputConnection != null) {
+                long eventTime = SystemClock.uptimeMillis();
+                inputConnection.sendKeyEvent(createKeyEvent(eventTime, KeyEvent.ACTION_DOWN, keyCode));
+                inputConnection.sendKeyEvent(createKeyEvent(eventTime, KeyEvent.ACTION_UP, keyCode));
+            }
+        });
+    }
+
+    public void commitText(CharSequence text) {
+        // Mutable text may be changed by the caller before the step is released, shared strings are kept as is
+        CharSequence committedText = text instanceof String ? text : text.toString();
+        enqueue(() -> {
+            InputConnection inputConnection = inputConnectionSupplier.get();
+            if (inputConnection != null) {
+                inputConnection.commitText(committedText, 1);
+            }
+        });
+    }
+
+    /**
+     * Runs an edit as a step, e.g. the one which reads text affected by previous steps
+     */
+    public void post(Runnable step) {
+        enqueue(step);
+    }
+
+    /**
+     * Called on every selection update, the editor has processed the last released step
+     */
+    public void onAcknowledged() {
+        if (awaitingAck) {
+            handler.removeCallbacks(ackTimeoutRunnable);
+            releaseNextStep();
+        }
+    }
+
+    /**
+     * Sends all pending steps at once, e.g. before the editor is gone
+     */
+    public void flush() {
+        handler.removeCallbacks(ackTimeoutRunnable);
+        awaitingAck = false;
+        while (!pendingSteps.isEmpty()) {
+            pendingSteps.poll().run();
+        }
+    }
+
+    /**
+     * Drops pending steps
+     */
+    public void reset() {
+        handler.removeCallbacks(ackTimeoutRunnable);
+        awaitingAck = false;
+        pendingSteps.clear();
+    }
+
+    private void enqueue(Runnable step) {
+        if (awaitingAck) {
+            pendingSteps.add(step);
+        } else {
+            runStep(step);
+        }
+    }
+
+    private void releaseNextStep() {
+        awaitingAck = false;
+        Runnable step = pendingSteps.poll();
+        if (step != null) {
+            runStep(step);
+        }
+    }
+
+    private static KeyEvent createKeyEvent(long eventTime, int action, int keyCode) {
+        return new KeyEvent(eventTime, eventTime, action, keyCode, 0, 0, KeyCharacterMap.VIRTUAL_KEYBOARD, 0,
+                KeyEvent.FLAG_SOFT_KEYBOARD | KeyEvent.FLAG_KEEP_TOUCH_MODE);
+    }
+
+    private void runStep(Runnable step) {
+        awaitingAck = true;
+        handler.postDelayed(ackTimeoutRunnable, ACK_TIMEOUT_MS);
+        step.run();
+    }
+}
@@ -0,0 +1,174 @@
+package com.sinux.pocketboard.input.connection;
+
+import android.view.KeyEvent;
+import android.view.inputmethod.CompletionInfo;
+import android.view.inputmethod.ExtractedText;
+import android.view.inputmethod.ExtractedTextRequest;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
+
+/**
+ * Input connection of the editor which records every call and its latency to {@link IpcAccounting},
+ * each call of the wrapped connection is a binder transaction to the editor process
+ */
+public class InstrumentedInputConnection extends InputConnectionWrapper {
+
+    private final IpcAccounting ipcAccounting;
+
+    public InstrumentedInputConnection(InputConnection target, IpcAccounting ipcAccounting) {
+        super(target, true);
+        this.ipcAccounting = ipcAccounting;
+    }
+
+    @Override
+    public CharSequence getTextBeforeCursor(int n, int flags) {
+        long startTime = System.nanoTime();
+        CharSequence result = super.getTextBeforeCursor(n, flags);
+        ipcAccounting.record("getTextBeforeCursor", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public CharSequence getTextAfterCursor(int n, int flags) {
+        long startTime = System.nanoTime();
+        CharSequence result = super.getTextAfterCursor(n, flags);
+        ipcAccounting.record("getTextAfterCursor", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public CharSequence getSelectedText(int flags) {
+        long startTime = System.nanoTime();
+        CharSequence result = super.getSelectedText(flags);
+        ipcAccounting.record("getSelectedText", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public int getCursorCapsMode(int reqModes) {
+        long startTime = System.nanoTime();
+        int result = super.getCursorCapsMode(reqModes);
+        ipcAccounting.record("getCursorCapsMode", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public ExtractedText getExtractedText(ExtractedTextRequest request, int flags) {
+        long startTime = System.nanoTime();
+        ExtractedText result = super.getExtractedText(request, flags);
+        ipcAccounting.record("getExtractedText", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public boolean beginBatchEdit() {
+        long startTime = System.nanoTime();
+        boolean result = super.beginBatchEdit();
+        ipcAccounting.record("beginBatchEdit", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public boolean endBatchEdit() {
+        long startTime = System.nanoTime();
+        boolean result = super.endBatchEdit();
+        ipcAccounting.record("endBatchEdit", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public boolean commitText(CharSequence text, int newCursorPosition) {
+        long startTime = System.nanoTime();
+        boolean result = super.commitText(text, newCursorPosition);
+        ipcAccounting.record("commitText", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public boolean setComposingText(CharSequence text, int newCursorPosition) {
+        long startTime = System.nanoTime();
+        boolean result = super.setComposingText(text, newCursorPosition);
+        ipcAccounting.record("setComposingText", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public boolean finishComposingText() {
+        long startTime = System.nanoTime();
+        boolean result = super.finishComposingText();
+        ipcAccounting.record("finishComposingText", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public boolean setComposingRegion(int start, int end) {
+        long startTime = System.nanoTime();
+        boolean result = super.setComposingRegion(start, end);
+        ipcAccounting.record("setComposingRegion", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public boolean setSelection(int start, int end) {
+        long startTime = System.nanoTime();
+        boolean result = super.setSelection(start, end);
+        ipcAccounting.record("setSelection", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+        long startTime = System.nanoTime();
+        boolean result = super.deleteSurroundingText(beforeLength, afterLength);
+        ipcAccounting.record("deleteSurroundingText", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public boolean deleteSurroundingTextInCodePoints(int beforeLength, int afterLength) {
+        long startTime = System.nanoTime();
+        boolean result = super.deleteSurroundingTextInCodePoints(beforeLength, afterLength);
+        ipcAccounting.record("deleteSurroundingTextInCodePoints", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public boolean sendKeyEvent(KeyEvent event) {
+        long startTime = System.nanoTime();
+        boolean result = super.sendKeyEvent(event);
+        ipcAccounting.record("sendKeyEvent", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public boolean performContextMenuAction(int id) {
+        long startTime = System.nanoTime();
+        boolean result = super.performContextMenuAction(id);
+        ipcAccounting.record("performContextMenuAction", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public boolean performEditorAction(int editorAction) {
+        long startTime = System.nanoTime();
+        boolean result = super.performEditorAction(editorAction);
+        ipcAccounting.record("performEditorAction", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public boolean clearMetaKeyStates(int states) {
+        long startTime = System.nanoTime();
+        boolean result = super.clearMetaKeyStates(states);
+        ipcAccounting.record("clearMetaKeyStates", System.nanoTime() - startTime);
+        return result;
+    }
+
+    @Override
+    public boolean commitCompletion(CompletionInfo text) {
+        long startTime = System.nanoTime();
+        boolean result = super.commitCompletion(text);
+        ipcAccounting.record("commitCompletion", System.nanoTime() - startTime);
+        return result;
+    }
+}
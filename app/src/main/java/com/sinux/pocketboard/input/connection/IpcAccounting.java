@@ -0,0 +1,175 @@
+package com.sinux.pocketboard.input.connection;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts calls to the editor and their latency, attributed to the keystroke which caused them.
+ * Keystrokes are marked on the thread which handles them, edits dispatched to another thread
+ * keep the attribution of the keystroke they have been dispatched from
+ */
+public final class IpcAccounting {
+
+    /**
+     * Calls made outside any keystroke, e.g. by frame callbacks
+     */
+    public static final String UNATTRIBUTED = "other";
+
+    /**
+     * Upper bounds of latency histogram buckets, the last bucket holds everything above them
+     */
+    private static final long[] LATENCY_BUCKET_BOUNDS_US = {50, 100, 250, 500, 1000, 2500, 5000, 10000, 50000};
+
+    private static final IpcAccounting instance = new IpcAccounting();
+
+    private final ThreadLocal<String> attribution;
+    private final Map<String, KeystrokeStats> keystrokes;
+
+    private volatile boolean enabled;
+
+    IpcAccounting() {
+        attribution = new ThreadLocal<>();
+        keystrokes = new TreeMap<>();
+    }
+
+    /**
+     * @return accounting shared by the input method and the settings
+     */
+    public static IpcAccounting getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Calls recorded on the current thread are attributed to given keystroke until {@link #endKeystroke()}
+     */
+    public void beginKeystroke(String name) {
+        attribution.set(name);
+        synchronized (this) {
+            getKeystrokeStats(name).count++;
+        }
+    }
+
+    public void endKeystroke() {
+        attribution.remove();
+    }
+
+    /**
+     * @return operation which records its calls with the attribution of the current thread
+     */
+    public Runnable attribute(Runnable operation) {
+        String name = attribution.get();
+        if (name == null) {
+            return operation;
+        }
+        return () -> {
+            attribution.set(name);
+            try {
+                operation.run();
+            } finally {
+                attribution.remove();
+            }
+        };
+    }
+
+    public void record(String method, long timeNanos) {
+        String name = attribution.get();
+        synchronized (this) {
+            KeystrokeStats keystrokeStats = getKeystrokeStats(name != null ? name : UNATTRIBUTED);
+            MethodStats methodStats = keystrokeStats.methods.get(method);
+            if (methodStats == null) {
+                methodStats = new MethodStats();
+                keystrokeStats.methods.put(method, methodStats);
+            }
+            methodStats.record(timeNanos);
+        }
+    }
+
+    public synchronized void reset() {
+        keystrokes.clear();
+    }
+
+    /**
+     * @return human-readable report: calls per keystroke and latency histogram of each method
+     */
+    public synchronized String dump() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, KeystrokeStats> keystroke : keystrokes.entrySet()) {
+            KeystrokeStats keystrokeStats = keystroke.getValue();
+            long calls = 0;
+            for (MethodStats methodStats : keystrokeStats.methods.values()) {
+                calls += methodStats.count;
+            }
+
+            report.append(keystroke.getKey());
+            if (keystrokeStats.count > 0) {
+                report.append(String.format(Locale.ROOT, ": %d keystrokes, %.2f calls per keystroke%n",
+                        keystrokeStats.count, (double) calls / keystrokeStats.count));
+            } else {
+                report.append(String.format(Locale.ROOT, ": %d calls%n", calls));
+            }
+
+            for (Map.Entry<String, MethodStats> method : keystrokeStats.methods.entrySet()) {
+                MethodStats methodStats = method.getValue();
+                report.append(String.format(Locale.ROOT, "  %s: %d calls, avg %d us, max %d us%n    ",
+                        method.getKey(), methodStats.count, methodStats.totalTimeNanos / methodStats.count / 1000,
+                        methodStats.maxTimeNanos / 1000));
+                for (int i = 0; i < methodStats.histogram.length; i++) {
+                    if (i < LATENCY_BUCKET_BOUNDS_US.length) {
+                        report.append("<").append(LATENCY_BUCKET_BOUNDS_US[i]);
+                    } else {
+                        report.append(">=").append(LATENCY_BUCKET_BOUNDS_US[i - 1]);
+                    }
+                    report.append("us:").append(methodStats.histogram[i]).append(' ');
+                }
+                report.setLength(report.length() - 1);
+                report.append(System.lineSeparator());
+            }
+        }
+        return report.toString();
+    }
+
+    private KeystrokeStats getKeystrokeStats(String name) {
+        KeystrokeStats keystrokeStats = keystrokes.get(name);
+        if (keystrokeStats == null) {
+            keystrokeStats = new KeystrokeStats();
+            keystrokes.put(name, keystrokeStats);
+        }
+        return keystrokeStats;
+    }
+
+    private static class KeystrokeStats {
+
+        private final Map<String, MethodStats> methods = new TreeMap<>();
+        private long count;
+    }
+
+    private static class MethodStats {
+
+        private final long[] histogram = new long[LATENCY_BUCKET_BOUNDS_US.length + 1];
+        private long count;
+        private long totalTimeNanos;
+        private long maxTimeNanos;
+
+        private void record(long timeNanos) {
+            count++;
+            totalTimeNanos += timeNanos;
+            maxTimeNanos = Math.max(maxTimeNanos, timeNanos);
+
+            long timeUs = timeNanos / 1000;
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKET_BOUNDS_US.length && timeUs >= LATENCY_BUCKET_BOUNDS_US[bucket]) {
+                bucket++;
+            }
+            histogram[bucket]++;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.sinux.pocketboard.input.connection;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Spanned;
+import android.text.SpannedString;
+import android.view.KeyEvent;
+import android.view.inputmethod.ExtractedText;
+import android.view.inputmethod.ExtractedTextRequest;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
+
+/**
+ * Input connection which keeps {@link TextMirror} in sync with the edits and serves text reads from it,
+ * the editor is only asked when the mirror doesn't have requested text.
+ * Edits are sent to the editor by {@link InputConnectionDispatcher}, so a slow editor doesn't block key handling.
+ * Reads which have to reach the editor wait for dispatched edits first, otherwise they could overtake them
+ */
+public class MirroredInputConnection extends InputConnectionWrapper {
+
+    /**
+     * A few frames, a slow editor must not stall key handling. Reads which time out return no text
+     */
+    private static final long READ_SYNC_TIMEOUT_MS = 50;
+
+    private final TextMirror textMirror;
+    private final InputConnectionDispatcher dispatcher;
+    private final IpcAccounting ipcAccounting;
+    private final Handler handler;
+
+    private InputConnection target;
+    private Runnable textEditListener;
+
+    public MirroredInputConnection(TextMirror textMirror, InputConnectionDispatcher dispatcher, IpcAccounting ipcAccounting) {
+        super(null, true);
+        this.textMirror = textMirror;
+        this.dispatcher = dispatcher;
+        this.ipcAccounting = ipcAccounting;
+        handler = new Handler(Looper.getMainLooper());
+        // Mirror has already applied the failed edit, so it doesn't match the editor anymore
+        dispatcher.setFailureListener(e -> handler.post(textMirror::invalidate));
+    }
+
+    public TextMirror getTextMirror() {
+        return textMirror;
+    }
+
+    @Override
+    public void setTarget(InputConnection target) {
+        super.setTarget(target);
+        // Edits which are already dispatched still go to the previous target
+        this.target = target;
+    }
+
+    /**
+     * @param textEditListener called on edits which an editor must answer with a selection update
+     */
+    public void setTextEditListener(Runnable textEditListener) {
+        this.textEditListener = textEditListener;
+    }
+
+    /**
+     * Waits until dispatched edits reach the editor before the editor is asked directly
+     *
+     * @return false if the editor hasn't processed the edits in time, then the mirror is dropped: text read now
+     * would be older than the mirrored selection. It's restored with the next selection update
+     */
+    private boolean awaitDispatchedEdits() {
+        if (dispatcher.awaitIdle(READ_SYNC_TIMEOUT_MS)) {
+            return true;
+        }
+        textMirror.invalidate();
+        return false;
+    }
+
+    @Override
+    public CharSequence getTextBeforeCursor(int n, int flags) {
+        if (flags == 0) {
+            CharSequence text = textMirror.getTextBeforeCursor(n);
+            if (text != null) {
+                return text;
+            }
+        }
+
+        if (!awaitDispatchedEdits()) {
+            // Editor is still busy with the edits, its text would be stale
+            return null;
+        }
+        if (flags != 0) {
+            // Styled text isn't mirrored
+            return super.getTextBeforeCursor(n, flags);
+        }
+
+        // Read more than requested to serve next lookups locally
+        int requestedLength = Math.max(n, TextMirror.SYNC_LENGTH);
+        CharSequence text = super.getTextBeforeCursor(requestedLength, 0);
+        if (text == null) {
+            return null;
+        }
+        textMirror.setTextBeforeCursor(text, requestedLength);
+        return text.length() > n ? text.subSequence(text.length() - n, text.length()) : text;
+    }
+
+    @Override
+    public CharSequence getTextAfterCursor(int n, int flags) {
+        if (flags == 0) {
+            CharSequence text = textMirror.getTextAfterCursor(n);
+            if (text != null) {
+                return text;
+            }
+        }
+
+        if (!awaitDispatchedEdits()) {
+            return null;
+        }
+        if (flags != 0) {
+            return super.getTextAfterCursor(n, flags);
+        }
+
+        int requestedLength = Math.max(n, TextMirror.SYNC_LENGTH);
+        CharSequence text = super.getTextAfterCursor(requestedLength, 0);
+        if (text == null) {
+            return null;
+        }
+        textMirror.setTextAfterCursor(text, requestedLength);
+        return text.length() > n ? text.subSequence(0, n) : text;
+    }
+
+    @Override
+    public CharSequence getSelectedText(int flags) {
+        if (flags == 0 && textMirror.hasEmptySelection()) {
+            return null;
+        }
+        if (!awaitDispatchedEdits()) {
+            return null;
+        }
+        return super.getSelectedText(flags);
+    }
+
+    @Override
+    public int getCursorCapsMode(int reqModes) {
+        if (!awaitDispatchedEdits()) {
+            return 0;
+        }
+        return super.getCursorCapsMode(reqModes);
+    }
+
+    @Override
+    public ExtractedText getExtractedText(ExtractedTextRequest request, int flags) {
+        if (!awaitDispatchedEdits()) {
+            return null;
+        }
+        return super.getExtractedText(request, flags);
+    }
+
+    @Override
+    public boolean beginBatchEdit() {
+        textMirror.beginBatchEdit();
+        return dispatch(InputConnection::beginBatchEdit);
+    }
+
+    @Override
+    public boolean endBatchEdit() {
+        textMirror.endBatchEdit();
+        return dispatch(InputConnection::endBatchEdit);
+    }
+
+    @Override
+    public boolean commitText(CharSequence text, int newCursorPosition) {
+        textMirror.commitText(text, newCursorPosition);
+        CharSequence dispatchedText = snapshot(text);
+        return dispatch(inputConnection -> inputConnection.commitText(dispatchedText, newCursorPosition));
+    }
+
+    @Override
+    public boolean setComposingText(CharSequence text, int newCursorPosition) {
+        textMirror.setComposingText(text, newCursorPosition);
+        onTextEdit();
+        CharSequence dispatchedText = snapshot(text);
+        return dispatch(inputConnection -> inputConnection.setComposingText(dispatchedText, newCursorPosition));
+    }
+
+    @Override
+    public boolean finishComposingText() {
+        textMirror.finishComposingText();
+        return dispatch(InputConnection::finishComposingText);
+    }
+
+    @Override
+    public boolean setComposingRegion(int start, int end) {
+        textMirror.setComposingRegion(start, end);
+        return dispatch(inputConnection -> inputConnection.setComposingRegion(start, end));
+    }
+
+    @Override
+    public boolean setSelection(int start, int end) {
+        textMirror.setSelection(start, end);
+        return dispatch(inputConnection -> inputConnection.setSelection(start, end));
+    }
+
+    @Override
+    public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+        textMirror.deleteSurroundingText(beforeLength, afterLength);
+        onTextEdit();
+        return dispatch(inputConnection -> inputConnection.deleteSurroundingText(beforeLength, afterLength));
+    }
+
+    @Override
+    public boolean deleteSurroundingTextInCodePoints(int beforeLength, int afterLength) {
+        textMirror.deleteSurroundingTextInCodePoints(beforeLength, afterLength);
+        onTextEdit();
+        return dispatch(inputConnection -> inputConnection.deleteSurroundingTextInCodePoints(beforeLength, afterLength));
+    }
+
+    @Override
+    public boolean sendKeyEvent(KeyEvent event) {
+        // Result of a key event is up to the editor
+        textMirror.invalidate();
+        return dispatch(inputConnection -> inputConnection.sendKeyEvent(event));
+    }
+
+    @Override
+    public boolean performContextMenuAction(int id) {
+        textMirror.invalidate();
+        return dispatch(inputConnection -> inputConnection.performContextMenuAction(id));
+    }
+
+    @Override
+    public boolean performEditorAction(int editorAction) {
+        return dispatch(inputConnection -> inputConnection.performEditorAction(editorAction));
+    }
+
+    @Override
+    public boolean clearMetaKeyStates(int states) {
+        return dispatch(inputConnection -> inputConnection.clearMetaKeyStates(states));
+    }
+
+    private void onTextEdit() {
+        if (textEditListener != null) {
+            textEditListener.run();
+        }
+    }
+
+    /**
+     * @return true if the edit has been dispatched, its actual result is unknown at this point
+     */
+    private boolean dispatch(Edit edit) {
+        InputConnection inputConnection = target;
+        if (inputConnection == null) {
+            return false;
+        }
+        Runnable operation = () -> edit.apply(inputConnection);
+        // Edit reaches the editor later, but it's caused by the current keystroke
+        dispatcher.dispatch(ipcAccounting.isEnabled() ? ipcAccounting.attribute(operation) : operation);
+        return true;
+    }
+
+    /**
+     * Callers reuse their buffers (e.g. the composer), so mutable text is copied to stay unchanged until it's sent.
+     * Immutable text, e.g. cached single character strings, is dispatched as is without making garbage
+     */
+    private static CharSequence snapshot(CharSequence text) {
+        if (text instanceof String || text instanceof SpannedString) {
+            return text;
+        }
+        if (text instanceof Spanned) {
+            return new SpannedString(text);
+        }
+        return text.toString();
+    }
+
+    private interface Edit {
+        void apply(InputConnection inputConnection);
+    }
+}
@@ -0,0 +1,482 @@
+package com.sinux.pocketboard.input.connection;
+
+/**
+ * Local copy of the editor state around the cursor: selection, composing region and text around the cursor,
+ * so the IME doesn't have to ask the editor (synchronous IPC) for text it has just sent itself.
+ * Mirror is updated with every edit sent to the editor and checked against selection updates of the editor,
+ * an unexpected update (the user or the app has changed the text) drops the mirrored text until it's read again
+ */
+public final class TextMirror {
+
+    public static final int UNKNOWN = -1;
+
+    /**
+     * Maximal length of mirrored text on each side of the cursor, distant characters are dropped
+     */
+    public static final int CAPACITY = 1024;
+
+    /**
+     * Minimal length of text to read from the editor on re-sync, so next lookups don't need IPC
+     */
+    public static final int SYNC_LENGTH = 256;
+
+    /**
+     * Selection updates expected from the editor but not received yet
+     */
+    private static final int MAX_PENDING_UPDATES = 16;
+    private static final int UPDATE_SIZE = 4;
+
+    private final StringBuilder textBeforeCursor;
+    private boolean textKnown;
+    /**
+     * Whether mirrored text starts at the beginning of the document
+     */
+    private boolean reachesStart;
+
+    private final StringBuilder textAfterCursor;
+    private boolean textAfterCursorKnown;
+    /**
+     * Whether mirrored text after the cursor ends at the end of the document
+     */
+    private boolean reachesEnd;
+
+    private int selectionStart;
+    private int selectionEnd;
+    private int composingStart;
+    private int composingEnd;
+
+    private int batchEditDepth;
+    private boolean changedInBatchEdit;
+
+    /**
+     * Ring buffer of expected (selectionStart, selectionEnd, composingStart, composingEnd) updates
+     */
+    private final int[] pendingUpdates;
+    private int pendingUpdatesHead;
+    private int pendingUpdatesCount;
+
+    public TextMirror() {
+        textBeforeCursor = new StringBuilder(CAPACITY);
+        textAfterCursor = new StringBuilder();
+        pendingUpdates = new int[MAX_PENDING_UPDATES * UPDATE_SIZE];
+        startInput(UNKNOWN, UNKNOWN);
+    }
+
+    /**
+     * Starts mirroring of new input session, text is unknown until it's read from the editor
+     */
+    public void startInput(int initialSelectionStart, int initialSelectionEnd) {
+        dropText();
+        if (initialSelectionStart >= 0 && initialSelectionEnd >= 0) {
+            selectionStart = Math.min(initialSelectionStart, initialSelectionEnd);
+            selectionEnd = Math.max(initialSelectionStart, initialSelectionEnd);
+        } else {
+            selectionStart = UNKNOWN;
+            selectionEnd = UNKNOWN;
+        }
+        composingStart = UNKNOWN;
+        composingEnd = UNKNOWN;
+        batchEditDepth = 0;
+        changedInBatchEdit = false;
+        clearPendingUpdates();
+    }
+
+    public boolean isSelectionKnown() {
+        return selectionStart != UNKNOWN;
+    }
+
+    public int getSelectionStart() {
+        return selectionStart;
+    }
+
+    public int getSelectionEnd() {
+        return selectionEnd;
+    }
+
+    public boolean hasEmptySelection() {
+        return selectionStart != UNKNOWN && selectionStart == selectionEnd;
+    }
+
+    /**
+     * @return mirrored text of given length (or shorter at the beginning of the document), null if it's not mirrored
+     */
+    public CharSequence getTextBeforeCursor(int length) {
+        if (!textKnown || length < 0) {
+            return null;
+        }
+        int mirroredLength = textBeforeCursor.length();
+        if (length <= mirroredLength) {
+            return textBeforeCursor.substring(mirroredLength - length);
+        }
+        return reachesStart ? textBeforeCursor.toString() : null;
+    }
+
+    /**
+     * Text of the requested length which has no line break may still be a part of a longer line,
+     * so its length alone doesn't tell whether the beginning of the document has been reached
+     *
+     * @return true if text of given length before the cursor starts at the beginning of the document,
+     * false if it doesn't or it's unknown
+     */
+    public boolean reachesStart(int length) {
+        if (selectionStart == UNKNOWN) {
+            return false;
+        }
+        return length >= selectionStart || (textKnown && reachesStart && length >= textBeforeCursor.length());
+    }
+
+    /**
+     * @return mirrored text of given length (or shorter at the end of the document), null if it's not mirrored
+     */
+    public CharSequence getTextAfterCursor(int length) {
+        if (!textAfterCursorKnown || length < 0) {
+            return null;
+        }
+        if (length <= textAfterCursor.length()) {
+            return textAfterCursor.substring(0, length);
+        }
+        return reachesEnd ? textAfterCursor.toString() : null;
+    }
+
+    /**
+     * Re-syncs mirrored text with text read from the editor
+     *
+     * @param requestedLength length which has been requested from the editor, shorter text means the beginning of the document
+     */
+    public void setTextBeforeCursor(CharSequence text, int requestedLength) {
+        if (selectionStart == UNKNOWN || batchEditDepth > 0) {
+            // Text can't be bound to the document or it may be partially edited
+            return;
+        }
+        textBeforeCursor.setLength(0);
+        textBeforeCursor.append(text);
+        textKnown = true;
+        reachesStart = text.length() < requestedLength || text.length() == selectionStart;
+        trimToCapacity();
+    }
+
+    /**
+     * Re-syncs mirrored text after the cursor with text read from the editor
+     *
+     * @param requestedLength length which has been requested from the editor, shorter text means the end of the document
+     */
+    public void setTextAfterCursor(CharSequence text, int requestedLength) {
+        if (selectionStart == UNKNOWN || batchEditDepth > 0) {
+            return;
+        }
+        textAfterCursor.setLength(0);
+        textAfterCursor.append(text);
+        textAfterCursorKnown = true;
+        reachesEnd = text.length() < requestedLength;
+        if (textAfterCursor.length() > CAPACITY) {
+            int length = Character.isHighSurrogate(textAfterCursor.charAt(CAPACITY - 1)) ? CAPACITY - 1 : CAPACITY;
+            textAfterCursor.setLength(length);
+            reachesEnd = false;
+        }
+    }
+
+    /**
+     * Mirrors {@code InputConnection.commitText}
+     */
+    public void commitText(CharSequence text, int newCursorPosition) {
+        replaceText(text, newCursorPosition, false);
+    }
+
+    /**
+     * Mirrors {@code InputConnection.setComposingText}
+     */
+    public void setComposingText(CharSequence text, int newCursorPosition) {
+        replaceText(text, newCursorPosition, true);
+    }
+
+    /**
+     * Mirrors {@code InputConnection.finishComposingText}
+     */
+    public void finishComposingText() {
+        composingStart = UNKNOWN;
+        composingEnd = UNKNOWN;
+        onChanged();
+    }
+
+    /**
+     * Mirrors {@code InputConnection.setComposingRegion}
+     */
+    public void setComposingRegion(int start, int end) {
+        if (start == end || start < 0 || end < 0) {
+            composingStart = UNKNOWN;
+            composingEnd = UNKNOWN;
+        } else {
+            composingStart = Math.min(start, end);
+            composingEnd = Math.max(start, end);
+        }
+        onChanged();
+    }
+
+    /**
+     * Mirrors {@code InputConnection.setSelection}, text around new selection is unknown
+     */
+    public void setSelection(int start, int end) {
+        dropText();
+        if (start < 0 || end < 0) {
+            invalidate();
+            return;
+        }
+        selectionStart = Math.min(start, end);
+        selectionEnd = Math.max(start, end);
+        onChanged();
+    }
+
+    /**
+     * Mirrors {@code InputConnection.deleteSurroundingText}
+     */
+    public void deleteSurroundingText(int beforeLength, int afterLength) {
+        if (selectionStart == UNKNOWN) {
+            return;
+        }
+
+        int deletedBefore = Math.min(Math.max(beforeLength, 0), selectionStart);
+        if (textKnown) {
+            int mirroredLength = textBeforeCursor.length();
+            if (deletedBefore <= mirroredLength) {
+                textBeforeCursor.setLength(mirroredLength - deletedBefore);
+            } else {
+                textKnown = false;
+            }
+        }
+
+        if (afterLength > 0) {
+            if (textAfterCursorKnown) {
+                if (afterLength <= textAfterCursor.length()) {
+                    textAfterCursor.delete(0, afterLength);
+                } else if (reachesEnd) {
+                    textAfterCursor.setLength(0);
+                } else {
+                    textAfterCursorKnown = false;
+                }
+            }
+            adjustComposingForDeletion(selectionEnd, selectionEnd + afterLength);
+        }
+        if (deletedBefore > 0) {
+            adjustComposingForDeletion(selectionStart - deletedBefore, selectionStart);
+            selectionStart -= deletedBefore;
+            selectionEnd -= deletedBefore;
+        }
+        onChanged();
+    }
+
+    /**
+     * Mirrors {@code InputConnection.deleteSurroundingTextInCodePoints}
+     */
+    public void deleteSurroundingTextInCodePoints(int beforeLength, int afterLength) {
+        int beforeIndex = textBeforeCursor.length();
+        int deletedBefore = 0;
+        while (textKnown && deletedBefore < beforeLength && beforeIndex > 0) {
+            beforeIndex -= Character.charCount(Character.codePointBefore(textBeforeCursor, beforeIndex));
+            deletedBefore++;
+        }
+        if (beforeLength > 0 && (!textKnown || (deletedBefore < beforeLength && !reachesStart))) {
+            // Length of deleted text is unknown
+            invalidate();
+            return;
+        }
+
+        int afterIndex = 0;
+        int deletedAfter = 0;
+        while (textAfterCursorKnown && deletedAfter < afterLength && afterIndex < textAfterCursor.length()) {
+            afterIndex += Character.charCount(Character.codePointAt(textAfterCursor, afterIndex));
+            deletedAfter++;
+        }
+        boolean afterLengthKnown = textAfterCursorKnown && (deletedAfter == afterLength || reachesEnd);
+
+        // Unknown length of text deleted after the cursor only matters for composing region after the cursor
+        deleteSurroundingText(textBeforeCursor.length() - beforeIndex, afterLengthKnown ? afterIndex : afterLength);
+        if (!afterLengthKnown && afterLength > 0) {
+            textAfterCursorKnown = false;
+        }
+    }
+
+    public void beginBatchEdit() {
+        batchEditDepth++;
+    }
+
+    public void endBatchEdit() {
+        if (batchEditDepth > 0 && --batchEditDepth == 0 && changedInBatchEdit) {
+            changedInBatchEdit = false;
+            expectUpdate();
+        }
+    }
+
+    /**
+     * Drops mirrored state after an edit with unpredictable result (e.g. synthetic key event),
+     * it's restored with the next selection update
+     */
+    public void invalidate() {
+        dropText();
+        selectionStart = UNKNOWN;
+        selectionEnd = UNKNOWN;
+        composingStart = UNKNOWN;
+        composingEnd = UNKNOWN;
+        clearPendingUpdates();
+    }
+
+    /**
+     * Checks the mirror against selection update received from the editor
+     *
+     * @return true if the update is a result of mirrored edits, false if the editor has been changed by someone else
+     */
+    public boolean onUpdateSelection(int newSelStart, int newSelEnd, int candidatesStart, int candidatesEnd) {
+        int normalizedCandidatesStart = candidatesStart >= 0 && candidatesEnd >= 0 && candidatesStart != candidatesEnd
+                ? Math.min(candidatesStart, candidatesEnd) : UNKNOWN;
+        int normalizedCandidatesEnd = normalizedCandidatesStart != UNKNOWN ? Math.max(candidatesStart, candidatesEnd) : UNKNOWN;
+        int normalizedSelStart = Math.min(newSelStart, newSelEnd);
+        int normalizedSelEnd = Math.max(newSelStart, newSelEnd);
+
+        for (int i = 0; i < pendingUpdatesCount; i++) {
+            int offset = ((pendingUpdatesHead + i) % MAX_PENDING_UPDATES) * UPDATE_SIZE;
+            if (pendingUpdates[offset] == normalizedSelStart && pendingUpdates[offset + 1] == normalizedSelEnd &&
+                    pendingUpdates[offset + 2] == normalizedCandidatesStart && pendingUpdates[offset + 3] == normalizedCandidatesEnd) {
+                // Mirror already reflects this and all previous updates
+                pendingUpdatesHead = (pendingUpdatesHead + i + 1) % MAX_PENDING_UPDATES;
+                pendingUpdatesCount -= i + 1;
+                return true;
+            }
+        }
+
+        if (pendingUpdatesCount == 0 && batchEditDepth == 0 &&
+                selectionStart == normalizedSelStart && selectionEnd == normalizedSelEnd &&
+                composingStart == normalizedCandidatesStart && composingEnd == normalizedCandidatesEnd) {
+            return true;
+        }
+
+        // Editor has been changed by someone else, text is re-read on demand
+        clearPendingUpdates();
+        dropText();
+        selectionStart = normalizedSelStart >= 0 ? normalizedSelStart : UNKNOWN;
+        selectionEnd = normalizedSelStart >= 0 ? normalizedSelEnd : UNKNOWN;
+        composingStart = normalizedCandidatesStart;
+        composingEnd = normalizedCandidatesEnd;
+        return false;
+    }
+
+    private void replaceText(CharSequence text, int newCursorPosition, boolean composing) {
+        if (selectionStart == UNKNOWN) {
+            return;
+        }
+
+        int start;
+        int end;
+        if (composingStart != UNKNOWN) {
+            start = composingStart;
+            end = composingEnd;
+        } else {
+            start = selectionStart;
+            end = selectionEnd;
+        }
+
+        if (textKnown) {
+            if (end == selectionStart && start <= end && end - start <= textBeforeCursor.length()) {
+                // Replaced region ends at the cursor, e.g. composing word or empty selection
+                textBeforeCursor.setLength(textBeforeCursor.length() - (end - start));
+            } else if (start != selectionStart) {
+                // Region is somewhere else, so the text in front of the new cursor position is unknown
+                textKnown = false;
+            }
+        }
+
+        int length = text.length();
+        int cursor = newCursorPosition > 0 ? start + length + newCursorPosition - 1 : start + newCursorPosition;
+        if (textKnown) {
+            if (cursor == start + length) {
+                textBeforeCursor.append(text);
+                trimToCapacity();
+            } else {
+                textKnown = false;
+            }
+        }
+        // Text after the cursor stays the same only if the cursor ends up right after the inserted text
+        if (end != selectionEnd || cursor != start + length) {
+            textAfterCursorKnown = false;
+        }
+
+        selectionStart = Math.max(cursor, 0);
+        selectionEnd = selectionStart;
+        if (composing && length > 0) {
+            composingStart = start;
+            composingEnd = start + length;
+        } else {
+            composingStart = UNKNOWN;
+            composingEnd = UNKNOWN;
+        }
+        onChanged();
+    }
+
+    private void adjustComposingForDeletion(int start, int end) {
+        if (composingStart == UNKNOWN) {
+            return;
+        }
+        composingStart = adjustPositionForDeletion(composingStart, start, end);
+        composingEnd = adjustPositionForDeletion(composingEnd, start, end);
+        if (composingStart == composingEnd) {
+            composingStart = UNKNOWN;
+            composingEnd = UNKNOWN;
+        }
+    }
+
+    private static int adjustPositionForDeletion(int position, int start, int end) {
+        if (position <= start) {
+            return position;
+        }
+        return position >= end ? position - (end - start) : start;
+    }
+
+    private void dropText() {
+        textBeforeCursor.setLength(0);
+        textKnown = false;
+        reachesStart = false;
+        textAfterCursor.setLength(0);
+        textAfterCursorKnown = false;
+        reachesEnd = false;
+    }
+
+    private void trimToCapacity() {
+        int excess = textBeforeCursor.length() - CAPACITY;
+        if (excess > 0) {
+            if (Character.isLowSurrogate(textBeforeCursor.charAt(excess))) {
+                excess++;
+            }
+            textBeforeCursor.delete(0, excess);
+            reachesStart = false;
+        }
+    }
+
+    private void onChanged() {
+        if (batchEditDepth > 0) {
+            // Editor reports the result of the whole batch edit at once
+            changedInBatchEdit = true;
+        } else {
+            expectUpdate();
+        }
+    }
+
+    private void expectUpdate() {
+        if (selectionStart == UNKNOWN) {
+            return;
+        }
+        if (pendingUpdatesCount == MAX_PENDING_UPDATES) {
+            // Editor doesn't report some updates (e.g. nothing has changed), so the oldest ones are dropped
+            pendingUpdatesHead = (pendingUpdatesHead + 1) % MAX_PENDING_UPDATES;
+            pendingUpdatesCount--;
+        }
+        int offset = ((pendingUpdatesHead + pendingUpdatesCount) % MAX_PENDING_UPDATES) * UPDATE_SIZE;
+        pendingUpdates[offset] = selectionStart;
+        pendingUpdates[offset + 1] = selectionEnd;
+        pendingUpdates[offset + 2] = composingStart;
+        pendingUpdates[offset + 3] = composingEnd;
+        pendingUpdatesCount++;
+    }
+
+    private void clearPendingUpdates() {
+        pendingUpdatesHead = 0;
+        pendingUpdatesCount = 0;
+    }
+}
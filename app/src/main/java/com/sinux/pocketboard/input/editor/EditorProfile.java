@@ -0,0 +1,57 @@
+package com.sinux.pocketboard.input.editor;
+
+/**
+ * Input policy of an editor, resolved once when input starts so key handling only reads fields
+ */
+public final class EditorProfile {
+
+    /**
+     * Profile used while there is no editor
+     */
+    public static final EditorProfile NONE = new EditorProfile(false, false, false);
+
+    private final boolean directInput;
+    private final boolean rawInput;
+    private final boolean suggestionsAllowed;
+
+    public EditorProfile(boolean directInput, boolean rawInput, boolean suggestionsAllowed) {
+        this.directInput = directInput;
+        this.rawInput = rawInput;
+        this.suggestionsAllowed = suggestionsAllowed;
+    }
+
+    /**
+     * @return profile of the same editor which gets raw input, e.g. once it has been detected to ignore text edits
+     */
+    public EditorProfile withRawInput() {
+        return rawInput ? this : new EditorProfile(directInput, true, suggestionsAllowed);
+    }
+
+    /**
+     * Key events go to the editor untouched
+     */
+    public boolean isDirectInput() {
+        return directInput;
+    }
+
+    /**
+     * Editor works correctly only with key events, so text is sent as key events and plain commits
+     */
+    public boolean isRawInput() {
+        return rawInput;
+    }
+
+    /**
+     * Editor type allows word suggestions, e.g. it's not a password or a numeric field
+     */
+    public boolean isSuggestionsAllowed() {
+        return suggestionsAllowed;
+    }
+
+    /**
+     * Composing region is used only by editors which handle text edits
+     */
+    public boolean isComposingAllowed() {
+        return !directInput && !rawInput;
+    }
+}
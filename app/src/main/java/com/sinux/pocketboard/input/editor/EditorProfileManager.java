@@ -0,0 +1,156 @@
+package com.sinux.pocketboard.input.editor;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.view.inputmethod.EditorInfo;
+
+import com.sinux.pocketboard.R;
+import com.sinux.pocketboard.utils.InputUtils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves {@link EditorProfile} of an editor from the built-in editor lists and the editors learned at runtime.
+ * Profiles are cached per package and input type. Editors are learned per package and input type as well,
+ * so a single field of a package (e.g. a web view) doesn't demote the others. Learned raw input editors
+ * are kept in device protected storage
+ */
+public class EditorProfileManager {
+
+    /**
+     * Raw input must be detected in this many input sessions in a row before the editor is learned,
+     * a single slow editor response must not change the editor for good
+     */
+    public static final int RAW_INPUT_DETECTIONS_TO_LEARN = 2;
+
+    private static final String PREFERENCES_NAME = "editor_profiles";
+    private static final String LEARNED_RAW_INPUT_EDITORS_KEY = "learned_raw_input_editor_types";
+    private static final String RAW_INPUT_DETECTIONS_KEY_PREFIX = "raw_input_detections:";
+    private static final int CACHE_SIZE = 32;
+
+    private final SharedPreferences sharedPreferences;
+    private final Set<String> directInputEditors;
+    private final Set<String> rawInputEditors;
+    private final Set<String> learnedRawInputEditors;
+    private final Map<String, EditorProfile> profiles;
+
+    /**
+     * Kept as a field, shared preferences hold listeners weakly
+     */
+    private final SharedPreferences.OnSharedPreferenceChangeListener learnedEditorsListener;
+
+    public EditorProfileManager(Context context) {
+        sharedPreferences = getSharedPreferences(context);
+        directInputEditors = new HashSet<>(Arrays.asList(context.getResources().getStringArray(R.array.direct_input_editors)));
+        rawInputEditors = new HashSet<>(Arrays.asList(context.getResources().getStringArray(R.array.raw_input_editors)));
+        learnedRawInputEditors = new HashSet<>();
+        profiles = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, EditorProfile> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+        loadLearnedRawInputEditors();
+
+        // Learned editors can be forgotten in settings
+        learnedEditorsListener = (preferences, key) -> {
+            if (LEARNED_RAW_INPUT_EDITORS_KEY.equals(key)) {
+                loadLearnedRawInputEditors();
+            }
+        };
+        sharedPreferences.registerOnSharedPreferenceChangeListener(learnedEditorsListener);
+    }
+
+    /**
+     * Forgets all learned editors and pending detections
+     */
+    public static void forgetLearnedEditors(Context context) {
+        SharedPreferences sharedPreferences = getSharedPreferences(context);
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        // Keys are removed one by one, clear() doesn't notify listeners before Android 11
+        for (String key : sharedPreferences.getAll().keySet()) {
+            editor.remove(key);
+        }
+        editor.apply();
+    }
+
+    public EditorProfile getProfile(EditorInfo editorInfo) {
+        if (editorInfo == null) {
+            return EditorProfile.NONE;
+        }
+
+        String key = getEditorKey(editorInfo);
+        EditorProfile profile = profiles.get(key);
+        if (profile == null) {
+            String packageName = editorInfo.packageName;
+            profile = new EditorProfile(directInputEditors.contains(packageName),
+                    rawInputEditors.contains(packageName) || learnedRawInputEditors.contains(key),
+                    InputUtils.isSuggestionAllowedEditor(editorInfo) && !InputUtils.isNumericEditor(editorInfo));
+            profiles.put(key, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Counts the session in which the editor has ignored text edits,
+     * the editor gets raw input for good once it's detected in enough sessions in a row
+     */
+    public void onRawInputDetected(EditorInfo editorInfo) {
+        if (editorInfo == null || editorInfo.packageName == null) {
+            return;
+        }
+
+        String key = getEditorKey(editorInfo);
+        if (learnedRawInputEditors.contains(key)) {
+            return;
+        }
+
+        String detectionsKey = RAW_INPUT_DETECTIONS_KEY_PREFIX + key;
+        int detections = sharedPreferences.getInt(detectionsKey, 0) + 1;
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        if (detections < RAW_INPUT_DETECTIONS_TO_LEARN) {
+            editor.putInt(detectionsKey, detections);
+        } else {
+            Set<String> learned = new HashSet<>(learnedRawInputEditors);
+            learned.add(key);
+            editor.remove(detectionsKey).putStringSet(LEARNED_RAW_INPUT_EDITORS_KEY, learned);
+            learnedRawInputEditors.add(key);
+            profiles.remove(key);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Editor has reported a selection update in the session, so earlier detections were false positives
+     */
+    public void onEditsAcknowledged(EditorInfo editorInfo) {
+        if (editorInfo == null) {
+            return;
+        }
+
+        String detectionsKey = RAW_INPUT_DETECTIONS_KEY_PREFIX + getEditorKey(editorInfo);
+        if (sharedPreferences.contains(detectionsKey)) {
+            sharedPreferences.edit().remove(detectionsKey).apply();
+        }
+    }
+
+    private void loadLearnedRawInputEditors() {
+        learnedRawInputEditors.clear();
+        // Returned set must not be modified
+        learnedRawInputEditors.addAll(sharedPreferences.getStringSet(LEARNED_RAW_INPUT_EDITORS_KEY, Set.of()));
+        profiles.clear();
+    }
+
+    private static String getEditorKey(EditorInfo editorInfo) {
+        return editorInfo.packageName + ':' + editorInfo.inputType;
+    }
+
+    private static SharedPreferences getSharedPreferences(Context context) {
+        return context.createDeviceProtectedStorageContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,47 @@
+package com.sinux.pocketboard.input.editor;
+
+/**
+ * Detects editors which ignore text edits: a working editor reports a selection update after composing text
+ * is set or text is deleted, while an editor which only understands key events never does
+ */
+public final class RawInputDetector {
+
+    /**
+     * Some edits legitimately don't move the selection (e.g. deletion at the start of text),
+     * so only a long series of edits without any selection update counts
+     */
+    public static final int UNACKNOWLEDGED_EDITS_THRESHOLD = 8;
+
+    private int unacknowledgedEdits;
+    private boolean selectionUpdated;
+
+    /**
+     * Called when input starts, editors are judged per input session
+     */
+    public void reset() {
+        unacknowledgedEdits = 0;
+        selectionUpdated = false;
+    }
+
+    public void onEdit() {
+        if (!selectionUpdated) {
+            unacknowledgedEdits++;
+        }
+    }
+
+    public void onSelectionUpdate() {
+        selectionUpdated = true;
+        unacknowledgedEdits = 0;
+    }
+
+    /**
+     * @return whether the editor has reported any selection update in the session
+     */
+    public boolean isSelectionUpdated() {
+        return selectionUpdated;
+    }
+
+    public boolean isRawInputDetected() {
+        return !selectionUpdated && unacknowledgedEdits >= UNACKNOWLEDGED_EDITS_THRESHOLD;
+    }
+}
@@ -1,5 +1,7 @@
 package com.sinux.pocketboard.input.handler;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.text.TextUtils;
 import android.view.KeyEvent;
@@ -10,25 +12,62 @@ import android.view.inputmethod.InputMethodSubtype;
 
 import com.sinux.pocketboard.PocketBoardIME;
 import com.sinux.pocketboard.R;
+import com.sinux.pocketboard.input.ChoreographerFrameScheduler;
+import com.sinux.pocketboard.input.FrameUpdateCoalescer;
+import com.sinux.pocketboard.input.connection.ChunkedTextCommitter;
+import com.sinux.pocketboard.input.connection.InputEventSequencer;
+import com.sinux.pocketboard.input.connection.TextMirror;
+import com.sinux.pocketboard.input.editor.EditorProfile;
+import com.sinux.pocketboard.input.mapping.ComposeSequence;
+import com.sinux.pocketboard.input.mapping.ComposeTable;
 import com.sinux.pocketboard.input.mapping.KeyMapping;
+import com.sinux.pocketboard.input.mapping.KeyboardMapping;
 import com.sinux.pocketboard.input.mapping.KeyboardMappingManager;
+import com.sinux.pocketboard.input.text.LexicalTokenFilter;
+import com.sinux.pocketboard.input.text.WordCharacterClassifier;
 import com.sinux.pocketboard.preferences.PreferencesHolder;
 import com.sinux.pocketboard.utils.InputUtils;
 import com.sinux.pocketboard.utils.CharacterUtils;
+import com.sinux.pocketboard.utils.CodePointStrings;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.Locale;
 
 public class KeyboardInputHandler implements InputHandler {
 
+    /**
+     * Long press of DEL removes single words first, then several words and then whole lines per step
+     */
+    private static final int SINGLE_WORD_DELETION_STEPS = 4;
+    private static final int MULTIPLE_WORDS_DELETION_STEPS = 4;
+    private static final int MULTIPLE_WORDS_DELETION_COUNT = 3;
+    private static final int LINE_DELETION_COUNT = Integer.MAX_VALUE;
+    /**
+     * Line start is looked up within the text the mirror can hold, longer lines are deleted by words
+     */
+    private static final int LINE_LOOKUP_LENGTH = TextMirror.CAPACITY;
+
     private final PocketBoardIME pocketBoardIME;
     private final InputMethodManager inputMethodManager;
     private final PreferencesHolder preferencesHolder;
     private final KeyboardMappingManager keyboardMappingManager;
+    private final TextMirror textMirror;
 
     private final StringBuilder textComposer;
-    private final String nonLetterOrDigitExclusions;
+    /**
+     * Sends composing text once per frame, so characters typed within one frame cost a single update
+     */
+    private final FrameUpdateCoalescer composingTextCoalescer;
+    /**
+     * Whether the head of the composing token has been committed, so the composer holds only its tail
+     */
+    private boolean composingWindowSlid;
+    /**
+     * Reusable buffer for text which is built right before sending it to the editor
+     */
+    private final StringBuilder textBuffer;
     private final int wordLookupLength;
+    private final int composingWindowLength;
+    private final int commitChunkLength;
     private final long keyLongPressDuration;
     private final int layoutChangeShortcutEventRepeatCount;
 
@@ -42,33 +81,80 @@ public class KeyboardInputHandler implements InputHandler {
     private CharSequence currentSelectedText;
     private byte keyIterationCounter;
     private long lastKeyDownTime;
+    /**
+     * Steps of word deletion done since DEL has been pressed
+     */
+    private int wordDeletionStep;
     private int lastKeyCode;
     private boolean lastShiftEnabled;
     private boolean lastAltEnabled;
     private int lastCursorPosition;
 
-    private final List<String> rawInputEditors;
+    /**
+     * Unresolved compose sequence, it isn't sent to the editor until it's resolved, broken or a commit boundary is reached
+     */
+    private final ComposeSequence composeSequence;
+    private final StringBuilder composeOutput;
+
+    /**
+     * Multi-tap candidate which is shown at the end of composing region while user iterates key values,
+     * so every tap replaces it with a single setComposingText call. 0 if there is no candidate
+     */
+    private int multiTapCandidate;
+    private final Handler handler;
+    private final Runnable multiTapTimeoutRunnable;
+
+    private WordCharacterClassifier wordCharacterClassifier;
+
     private boolean rawInputMode;
+    private final InputEventSequencer inputEventSequencer;
+    private final ChunkedTextCommitter chunkedTextCommitter;
 
     public KeyboardInputHandler(PocketBoardIME pocketBoardIME) {
         this.pocketBoardIME = pocketBoardIME;
         this.inputMethodManager = pocketBoardIME.getInputMethodManager();
         this.preferencesHolder = pocketBoardIME.getPreferencesHolder();
-        keyboardMappingManager = new KeyboardMappingManager(pocketBoardIME, inputMethodManager);
+        keyboardMappingManager = new KeyboardMappingManager(pocketBoardIME, inputMethodManager, preferencesHolder);
+        textMirror = pocketBoardIME.getTextMirror();
 
         textComposer = new StringBuilder();
-        nonLetterOrDigitExclusions = pocketBoardIME.getResources().getString(R.string.non_letter_or_digit_exclusions);
+        composingTextCoalescer = new FrameUpdateCoalescer(new ChoreographerFrameScheduler(), this::sendComposingText);
+        textBuffer = new StringBuilder();
+        composeSequence = new ComposeSequence();
+        composeOutput = new StringBuilder();
         wordLookupLength = pocketBoardIME.getResources().getInteger(R.integer.word_lookup_length);
+        composingWindowLength = pocketBoardIME.getResources().getInteger(R.integer.composing_window_length);
+        commitChunkLength = pocketBoardIME.getResources().getInteger(R.integer.commit_chunk_length);
         keyLongPressDuration = preferencesHolder.getLongKeyPressDuration();
         layoutChangeShortcutEventRepeatCount = pocketBoardIME.getResources().getInteger(R.integer.layout_change_shortcut_event_repeat_count);
 
-        rawInputEditors = Arrays.asList(pocketBoardIME.getResources().getStringArray(R.array.raw_input_editors));
+        inputEventSequencer = new InputEventSequencer(pocketBoardIME::getMirroredInputConnection);
+        chunkedTextCommitter = new ChunkedTextCommitter(pocketBoardIME::getMirroredInputConnection, textMirror, commitChunkLength);
+
+        handler = new Handler(Looper.getMainLooper());
+        multiTapTimeoutRunnable = () -> finishMultiTap(pocketBoardIME.getMirroredInputConnection());
     }
 
-    public void onStartInput(EditorInfo attribute, boolean suggestionsAllowed, int cursorPosition) {
-        rawInputMode = rawInputEditors.contains(attribute.packageName);
+    public void destroy() {
+        clearMultiTap();
+        composingTextCoalescer.cancel();
+        inputEventSequencer.reset();
+        chunkedTextCommitter.cancel();
+        keyboardMappingManager.destroy();
+    }
 
-        composingEnabled = suggestionsAllowed && !rawInputMode;
+    public void onStartInput(EditorInfo attribute, EditorProfile editorProfile, boolean suggestionsAllowed, int cursorPosition) {
+        // Restarted editor still gets the key events which haven't been sent yet, streamed text keeps going to it
+        inputEventSequencer.flush();
+        rawInputMode = editorProfile.isRawInput();
+
+        composingEnabled = suggestionsAllowed && editorProfile.isComposingAllowed();
+        resetCompose();
+        clearMultiTap();
+        composingTextCoalescer.cancel();
+
+        InputMethodSubtype inputMethodSubtype = inputMethodManager.getCurrentInputMethodSubtype();
+        wordCharacterClassifier = getWordCharacterClassifier(inputMethodSubtype);
 
         // Switch to numeric keyboard
         if (InputUtils.isNumericEditor(attribute)) {
@@ -76,7 +162,7 @@ public class KeyboardInputHandler implements InputHandler {
             keyboardMappingManager.switchToNumericKeyboardMapping();
         } else {
             numericInputMode = false;
-            keyboardMappingManager.switchToKeyboardMapping(inputMethodManager.getCurrentInputMethodSubtype());
+            keyboardMappingManager.switchToKeyboardMapping(inputMethodSubtype);
         }
 
         layoutChangeShortcut = preferencesHolder.isLayoutChangeShortcutEnabled();
@@ -92,16 +178,43 @@ public class KeyboardInputHandler implements InputHandler {
     }
 
     public void onFinishInput() {
+        // Characters which haven't reached the editor yet must not be lost
+        flushCompose(pocketBoardIME.getMirroredInputConnection());
+        composingTextCoalescer.flush();
+        finishMultiTap(pocketBoardIME.getMirroredInputConnection());
+        inputEventSequencer.flush();
+        resetCompose();
         if (composingEnabled) {
             textComposer.setLength(0);
         }
     }
 
-    public void onUpdateSelection(InputConnection inputConnection, int newSelStart, int newSelEnd, int candidatesEnd) {
+    /**
+     * @param ownUpdate whether the update is a result of edits made by this IME
+     */
+    public void onUpdateSelection(InputConnection inputConnection, int newSelStart, int newSelEnd, int candidatesEnd,
+                                  boolean ownUpdate) {
+        inputEventSequencer.onAcknowledged();
+        chunkedTextCommitter.onUpdateSelection(newSelStart, newSelEnd);
+        if (!ownUpdate && !rawInputMode) {
+            // Pending sequence belongs to the place where it has been typed.
+            // Raw input editors report key events as foreign updates, so they can't tell a cursor move
+            resetCompose();
+        }
+        if (multiTapCandidate != 0 && (newSelStart != candidatesEnd || newSelEnd != candidatesEnd)) {
+            // Cursor has left the candidate, keep it in the editor as is
+            clearMultiTap();
+            if (textComposer.length() == 0 && inputConnection != null) {
+                inputConnection.finishComposingText();
+            }
+        }
         if (composingEnabled) {
             currentSelectedText = "";
-            if (textComposer.length() > 0 && (newSelStart != candidatesEnd || newSelEnd != candidatesEnd)) {
+            // Editor doesn't know composing text which waits for the next frame, so own updates are behind it
+            boolean composingTextPending = ownUpdate && composingTextCoalescer.isPending();
+            if (textComposer.length() > 0 && !composingTextPending && (newSelStart != candidatesEnd || newSelEnd != candidatesEnd)) {
                 textComposer.setLength(0);
+                composingTextCoalescer.cancel();
                 if (inputConnection != null) {
                     inputConnection.finishComposingText();
                 }
@@ -113,23 +226,41 @@ public class KeyboardInputHandler implements InputHandler {
     }
 
     public void onInputMethodSubtypeChanged(InputMethodSubtype inputMethodSubtype, boolean suggestionsAllowed) {
-        if (composingEnabled) {
-            InputConnection inputConnection = pocketBoardIME.getCurrentInputConnection();
-            if (inputConnection != null) {
+        InputConnection inputConnection = pocketBoardIME.getMirroredInputConnection();
+        finishMultiTap(inputConnection);
+        if (inputConnection != null) {
+            flushCompose(inputConnection);
+            if (composingEnabled) {
                 commitComposingText(inputConnection);
             }
         }
+        resetCompose();
         composingEnabled = suggestionsAllowed;
+        wordCharacterClassifier = getWordCharacterClassifier(inputMethodSubtype);
         keyboardMappingManager.switchToKeyboardMapping(inputMethodSubtype);
     }
 
+    private static WordCharacterClassifier getWordCharacterClassifier(InputMethodSubtype inputMethodSubtype) {
+        Locale locale = inputMethodSubtype != null ? Locale.forLanguageTag(inputMethodSubtype.getLanguageTag()) : Locale.ROOT;
+        return WordCharacterClassifier.forLocale(locale);
+    }
+
     public CharSequence getCurrentComposingText() {
         return TextUtils.isEmpty(textComposer) ? currentSelectedText : textComposer;
     }
 
     public void applySuggestion(CharSequence text, InputConnection inputConnection, boolean appendSpace) {
+        if (chunkedTextCommitter.isPending()) {
+            // Suggestion would land inside the streamed text
+            return;
+        }
         if (inputConnection != null) {
-            if (composingEnabled) {
+            // Suggestion replaces the word typed before the pending sequence
+            resetCompose();
+            finishMultiTap(inputConnection);
+            if (text.length() > commitChunkLength) {
+                commitLargeText(inputConnection, text, composingEnabled && appendSpace);
+            } else if (composingEnabled) {
                 textComposer.setLength(0);
                 textComposer.append(text);
                 if (appendSpace) {
@@ -148,31 +279,41 @@ public class KeyboardInputHandler implements InputHandler {
                                  boolean shiftEnabled, boolean altEnabled) {
         long eventTime = event.getEventTime();
 
+        if (multiTapCandidate != 0) {
+            handler.removeCallbacks(multiTapTimeoutRunnable);
+            // Any other key or a late tap ends the cycle
+            if (event.getRepeatCount() == 0 && (keyCode != lastKeyCode || eventTime - lastKeyDownTime > keyLongPressDuration)) {
+                finishMultiTap(inputConnection);
+            }
+        }
+
         if (keyCode == KeyEvent.KEYCODE_DEL) {
-            if (!composingEnabled || event.getRepeatCount() == 0) {
+            if (composeSequence.isPending() && event.getRepeatCount() == 0) {
+                // Cancel pending compose sequence, nothing has been printed yet
+                resetCompose();
+                lastKeyDownTime = eventTime;
+                lastKeyCode = keyCode;
+            } else if (!composingEnabled || event.getRepeatCount() == 0) {
                 // Remove last char on DEL short press
                 handleBackspace(inputConnection);
                 lastKeyDownTime = eventTime;
                 lastKeyCode = keyCode;
+                wordDeletionStep = 0;
             } else {
-                // Remove last word on DEL long press
-                if (composingEnabled && eventTime - lastKeyDownTime > keyLongPressDuration) {
-                    handleBackspace(inputConnection);
-                    boolean hadComposingText = textComposer.length() > 0;
-                    inputConnection.beginBatchEdit();
-                    textComposer.setLength(0);
-                    inputConnection.commitText("", 1);
-                    inputConnection.endBatchEdit();
-                    // Delay before removing next word
-                    if (hadComposingText) {
-                        lastKeyDownTime = eventTime;
-                    }
+                // Remove words on DEL long press, the longer DEL is held the more is removed at once
+                if (eventTime - lastKeyDownTime > keyLongPressDuration) {
+                    deleteWords(inputConnection, getWordDeletionCount(wordDeletionStep++));
+                    // Delay before the next step
+                    lastKeyDownTime = eventTime;
                 }
             }
             return true;
         }
 
         if (keyCode == KeyEvent.KEYCODE_SPACE) {
+            if (event.getRepeatCount() == 0) {
+                flushCompose(inputConnection);
+            }
             handleSpace(inputConnection, eventTime, event.getRepeatCount());
             lastKeyDownTime = eventTime;
             lastKeyCode = keyCode;
@@ -199,11 +340,17 @@ public class KeyboardInputHandler implements InputHandler {
             return true;
         }
 
+        if (multiTapCandidate != 0 && keyCode == lastKeyCode) {
+            // Cycle ends when the next tap can't continue it anymore
+            long timeout = lastKeyDownTime + keyLongPressDuration - SystemClock.uptimeMillis();
+            handler.postDelayed(multiTapTimeoutRunnable, Math.max(timeout, 0));
+        }
+
         if (event.getUnicodeChar() == 0) {
             return false;
         }
 
-        KeyMapping keyMapping = keyboardMappingManager.getCurrentMapping().getKeyMapping(keyCode);
+        KeyMapping keyMapping = keyboardMappingManager.getMapping(event.getDeviceId()).getKeyMapping(keyCode);
         return keyMapping != null;
     }
 
@@ -213,10 +360,12 @@ public class KeyboardInputHandler implements InputHandler {
             if (composingLength > 1) {
                 // Remove next composing character
                 textComposer.setLength(textComposer.length() - CharacterUtils.getLastCharacterLength(textComposer));
+                composingTextCoalescer.cancel();
                 inputConnection.setComposingText(textComposer, 1);
             } else if (composingLength > 0) {
                 // Remove last composing character
                 textComposer.setLength(0);
+                composingTextCoalescer.cancel();
                 inputConnection.commitText("", 1);
             } else {
                 // Try to remove last character then find and convert last word to new composing
@@ -230,9 +379,86 @@ public class KeyboardInputHandler implements InputHandler {
         }
     }
 
+    private static int getWordDeletionCount(int step) {
+        if (step < SINGLE_WORD_DELETION_STEPS) {
+            return 1;
+        }
+        if (step < SINGLE_WORD_DELETION_STEPS + MULTIPLE_WORDS_DELETION_STEPS) {
+            return MULTIPLE_WORDS_DELETION_COUNT;
+        }
+        return LINE_DELETION_COUNT;
+    }
+
+    /**
+     * Deletion span is computed from the mirrored text, so each step costs a single deletion in the editor
+     *
+     * @param wordCount number of words to delete or {@link #LINE_DELETION_COUNT} to delete up to the line start
+     */
+    private void deleteWords(InputConnection inputConnection, int wordCount) {
+        if (rawInputMode) {
+            // Editor handles deletion itself, text around the cursor is unknown
+            handleBackspace(inputConnection);
+            return;
+        }
+
+        // Span includes composing text, so the editor must have all of it
+        composingTextCoalescer.flush();
+        boolean hadComposingText = textComposer.length() > 0;
+        textComposer.setLength(0);
+
+        inputConnection.beginBatchEdit();
+        if (hadComposingText) {
+            inputConnection.finishComposingText();
+        }
+        if (TextUtils.isEmpty(inputConnection.getSelectedText(0))) {
+            int beforeLength;
+            if (wordCount == LINE_DELETION_COUNT) {
+                beforeLength = getLineDeletionLength(inputConnection);
+            } else {
+                CharSequence str = inputConnection.getTextBeforeCursor(wordLookupLength * wordCount, 0);
+                beforeLength = TextUtils.isEmpty(str) ? 0 :
+                        str.length() - CharacterUtils.getWordsStartBefore(str, str.length(), wordCount, wordCharacterClassifier);
+            }
+            if (beforeLength > 0) {
+                inputConnection.deleteSurroundingText(beforeLength, 0);
+                lastCursorPosition -= beforeLength;
+            }
+        } else {
+            inputConnection.commitText("", 1);
+        }
+        inputConnection.endBatchEdit();
+    }
+
+    /**
+     * Text without a line break ends at the line start only if it reaches the beginning of the document,
+     * otherwise the lookup is extended. A line which starts beyond the lookup isn't cut at an arbitrary point,
+     * only the last words of the lookup are deleted then
+     *
+     * @return length of text to delete before the cursor
+     */
+    private int getLineDeletionLength(InputConnection inputConnection) {
+        int lookupLength = TextMirror.SYNC_LENGTH;
+        while (true) {
+            CharSequence str = inputConnection.getTextBeforeCursor(lookupLength, 0);
+            if (TextUtils.isEmpty(str)) {
+                return 0;
+            }
+
+            int start = CharacterUtils.getLineStartBefore(str, str.length());
+            if (start > 0 || str.length() < lookupLength || textMirror.reachesStart(str.length())) {
+                return str.length() - start;
+            }
+            if (lookupLength >= LINE_LOOKUP_LENGTH) {
+                return str.length() - CharacterUtils.getWordsStartBefore(str, str.length(),
+                        MULTIPLE_WORDS_DELETION_COUNT, wordCharacterClassifier);
+            }
+            lookupLength = LINE_LOOKUP_LENGTH;
+        }
+    }
+
     private void deleteLastCharacter(InputConnection inputConnection) {
         if (rawInputMode) {
-            pocketBoardIME.sendDownUpKeyEvents(KeyEvent.KEYCODE_DEL);
+            inputEventSequencer.sendDownUpKeyEvents(KeyEvent.KEYCODE_DEL);
             return;
         }
 
@@ -252,9 +478,15 @@ public class KeyboardInputHandler implements InputHandler {
         // Find and convert last word to new composing
         CharSequence str = inputConnection.getTextBeforeCursor(wordLookupLength, 0);
         if (!TextUtils.isEmpty(str)) {
-            int regionStart = CharacterUtils.getLastWordStartIndex(str, nonLetterOrDigitExclusions);
+            int regionStart = CharacterUtils.getLastWordStartIndex(str, wordCharacterClassifier);
             int regionEnd = str.length();
             if (regionStart != regionEnd) {
+                // Word may continue beyond the lookup, then it's too long to be composed as a whole
+                composingWindowSlid = regionStart == 0 && str.length() >= wordLookupLength;
+                if (regionEnd - regionStart > composingWindowLength) {
+                    regionStart = alignToCodePoint(str, regionEnd - composingWindowLength);
+                    composingWindowSlid = true;
+                }
                 textComposer.append(str.subSequence(regionStart, regionEnd));
                 int composingLength = textComposer.length();
                 inputConnection.finishComposingText();
@@ -282,14 +514,11 @@ public class KeyboardInputHandler implements InputHandler {
                     commitComposingText(inputConnection);
                 }
             }
-            CharSequence lastChars = inputConnection.getTextBeforeCursor(3, 0);
-            if (CharacterUtils.isLetterOrDigitAndSpace(lastChars)) {
-                inputConnection.beginBatchEdit();
-                inputConnection.deleteSurroundingText(1, 0);
-                inputConnection.commitText(". ", 1);
-                inputConnection.endBatchEdit();
+            if (rawInputMode) {
+                // Text before cursor is valid only when pending key events have reached the editor
+                inputEventSequencer.post(() -> commitDoubleSpacePeriod(pocketBoardIME.getMirroredInputConnection()));
             } else {
-                inputConnection.commitText(" ", 1);
+                commitDoubleSpacePeriod(inputConnection);
             }
         } else {
             if (composingEnabled) {
@@ -297,6 +526,30 @@ public class KeyboardInputHandler implements InputHandler {
                     commitComposingText(inputConnection);
                 }
             }
+            commitSpace(inputConnection);
+        }
+    }
+
+    private void commitDoubleSpacePeriod(InputConnection inputConnection) {
+        if (inputConnection == null) {
+            return;
+        }
+        CharSequence lastChars = inputConnection.getTextBeforeCursor(3, 0);
+        inputConnection.beginBatchEdit();
+        if (CharacterUtils.isLetterOrDigitAndSpace(lastChars)) {
+            inputConnection.deleteSurroundingText(1, 0);
+            inputConnection.commitText(". ", 1);
+        } else {
+            inputConnection.commitText(" ", 1);
+        }
+        inputConnection.endBatchEdit();
+    }
+
+    private void commitSpace(InputConnection inputConnection) {
+        if (rawInputMode) {
+            // Space must not overtake key events which are still pending
+            inputEventSequencer.commitText(" ");
+        } else {
             inputConnection.commitText(" ", 1);
         }
     }
@@ -306,7 +559,8 @@ public class KeyboardInputHandler implements InputHandler {
         // Handle first key press
         if (event.getRepeatCount() == 0) {
             // Get current key mapping
-            KeyMapping keyMapping = keyboardMappingManager.getCurrentMapping().getKeyMapping(keyCode);
+            KeyboardMapping keyboardMapping = keyboardMappingManager.getMapping(event.getDeviceId());
+            KeyMapping keyMapping = keyboardMapping.getKeyMapping(keyCode);
 
             // Skip unknown keys
             if (keyMapping == null) {
@@ -328,11 +582,19 @@ public class KeyboardInputHandler implements InputHandler {
             }
 
             // Print next character
+            int value = keyMapping.getValue(lastShiftEnabled, lastAltEnabled, keyIterationCounter);
             if (!keyIterationModeEnabled || numericInputMode) {
-                printNextCharacter(inputConnection, keyMapping.getValue(lastShiftEnabled, lastAltEnabled, keyIterationCounter));
+                if (keyMapping.hasAdditionalValues(lastAltEnabled) && !numericInputMode && !rawInputMode &&
+                        !composeSequence.isPending() &&
+                        keyboardMapping.getComposeTable().next(ComposeTable.ROOT_STATE, value) == ComposeTable.NO_STATE) {
+                    // Key values can be iterated, so hold the character in composing region until the cycle ends
+                    setMultiTapCandidate(inputConnection, value);
+                } else {
+                    printComposedCharacter(inputConnection, keyboardMapping.getComposeTable(), value);
+                }
             } else {
                 // Or replace last (in additional key values iteration mode)
-                replaceLastCharacter(inputConnection, keyMapping.getValue(lastShiftEnabled, lastAltEnabled, keyIterationCounter));
+                replaceComposedCharacter(inputConnection, keyboardMapping.getComposeTable(), value);
             }
 
             return true;
@@ -342,11 +604,13 @@ public class KeyboardInputHandler implements InputHandler {
                 lastAltEnabled = true;
                 keyIterationCounter = 0;
 
-                KeyMapping keyMapping = keyboardMappingManager.getCurrentMapping().getKeyMapping(keyCode);
+                KeyboardMapping keyboardMapping = keyboardMappingManager.getMapping(event.getDeviceId());
+                KeyMapping keyMapping = keyboardMapping.getKeyMapping(keyCode);
                 if (keyMapping == null) {
                     return false;
                 }
-                replaceLastCharacter(inputConnection, keyMapping.getValue(lastShiftEnabled, lastAltEnabled, keyIterationCounter));
+                replaceComposedCharacter(inputConnection, keyboardMapping.getComposeTable(),
+                        keyMapping.getValue(lastShiftEnabled, lastAltEnabled, keyIterationCounter));
                 lastKeyDownTime = eventTime;
 
                 return true;
@@ -356,9 +620,116 @@ public class KeyboardInputHandler implements InputHandler {
         return false;
     }
 
+    /**
+     * Passes the character through compose state machine, so only resolved sequences reach the editor
+     */
+    private void printComposedCharacter(InputConnection inputConnection, ComposeTable table, int keyCharacterCodePoint) {
+        composeSequence.next(table, keyCharacterCodePoint, composeOutput);
+        printComposeOutput(inputConnection);
+    }
+
+    private void replaceComposedCharacter(InputConnection inputConnection, ComposeTable table, int keyCharacterCodePoint) {
+        if (composeSequence.isPending()) {
+            // Replaced character is still pending, so there is nothing to remove from the editor
+            composeSequence.replaceLast(table, keyCharacterCodePoint, composeOutput);
+            printComposeOutput(inputConnection);
+        } else if (table.next(ComposeTable.ROOT_STATE, keyCharacterCodePoint) != ComposeTable.NO_STATE) {
+            // New character starts a sequence, so remove the replaced one and keep the new one pending
+            if (multiTapCandidate != 0) {
+                cancelMultiTap(inputConnection);
+            } else {
+                handleBackspace(inputConnection);
+            }
+            printComposedCharacter(inputConnection, table, keyCharacterCodePoint);
+        } else if (multiTapCandidate != 0) {
+            setMultiTapCandidate(inputConnection, keyCharacterCodePoint);
+        } else {
+            replaceLastCharacter(inputConnection, keyCharacterCodePoint);
+        }
+    }
+
+    /**
+     * Prints pending sequence at a commit boundary, so it isn't carried over to the next edit
+     */
+    private void flushCompose(InputConnection inputConnection) {
+        if (composeSequence.isPending() && inputConnection != null) {
+            composeSequence.flush(composeOutput);
+            printComposeOutput(inputConnection);
+        }
+    }
+
+    private void printComposeOutput(InputConnection inputConnection) {
+        for (int i = 0; i < composeOutput.length(); i += Character.charCount(composeOutput.codePointAt(i))) {
+            printNextCharacter(inputConnection, composeOutput.codePointAt(i));
+        }
+        composeOutput.setLength(0);
+    }
+
+    private void resetCompose() {
+        composeSequence.reset();
+    }
+
+    private void setMultiTapCandidate(InputConnection inputConnection, int keyCharacterCodePoint) {
+        multiTapCandidate = keyCharacterCodePoint;
+        // Composing word (if any) stays in front of the candidate
+        textBuffer.setLength(0);
+        textBuffer.append(textComposer).appendCodePoint(keyCharacterCodePoint);
+        composingTextCoalescer.cancel();
+        inputConnection.setComposingText(textBuffer, 1);
+    }
+
+    /**
+     * Leaves the candidate in the editor, as if it has been printed by a single tap
+     */
+    private void finishMultiTap(InputConnection inputConnection) {
+        int keyCharacterCodePoint = multiTapCandidate;
+        clearMultiTap();
+        if (keyCharacterCodePoint == 0 || inputConnection == null) {
+            return;
+        }
+
+        if (CharacterUtils.isPunctuationCharacter(keyCharacterCodePoint)) {
+            // Remove the candidate and print it again, so punctuation rules are applied
+            inputConnection.beginBatchEdit();
+            if (textComposer.length() == 0) {
+                inputConnection.commitText("", 1);
+            }
+            handlePunctuationCharacter(inputConnection, keyCharacterCodePoint, false);
+            inputConnection.endBatchEdit();
+        } else if (composingEnabled) {
+            // Candidate is already shown in composing region, so only the composer has to catch up
+            appendToComposer(keyCharacterCodePoint);
+            if (!isWordCharacter(keyCharacterCodePoint)) {
+                commitComposingText(inputConnection);
+            } else {
+                slideComposingWindow(inputConnection);
+            }
+        } else {
+            inputConnection.finishComposingText();
+        }
+    }
+
+    /**
+     * Removes the candidate from the editor
+     */
+    private void cancelMultiTap(InputConnection inputConnection) {
+        clearMultiTap();
+        composingTextCoalescer.cancel();
+        if (textComposer.length() > 0) {
+            inputConnection.setComposingText(textComposer, 1);
+        } else {
+            inputConnection.commitText("", 1);
+        }
+    }
+
+    private void clearMultiTap() {
+        multiTapCandidate = 0;
+        handler.removeCallbacks(multiTapTimeoutRunnable);
+    }
+
     private void printNextCharacter(InputConnection inputConnection, int keyCharacterCodePoint) {
         if (rawInputMode) {
-            inputConnection.commitText(new String(Character.toChars(keyCharacterCodePoint)), 1);
+            inputEventSequencer.commitText(CodePointStrings.get(keyCharacterCodePoint));
             return;
         }
 
@@ -367,14 +738,14 @@ public class KeyboardInputHandler implements InputHandler {
         } else if (composingEnabled) {
             composeNewCharacter(inputConnection, keyCharacterCodePoint);
         } else {
-            inputConnection.commitText(new String(Character.toChars(keyCharacterCodePoint)), 1);
+            inputConnection.commitText(CodePointStrings.get(keyCharacterCodePoint), 1);
         }
     }
 
     private void replaceLastCharacter(InputConnection inputConnection, int keyCharacterCodePoint) {
         if (rawInputMode) {
+            // Sequencer holds the new character until the editor has processed the backspace
             handleBackspace(inputConnection);
-            SystemClock.sleep(10); // Stupid but working trick to prevent events race condition
             printNextCharacter(inputConnection, keyCharacterCodePoint);
             return;
         }
@@ -388,7 +759,7 @@ public class KeyboardInputHandler implements InputHandler {
             } else {
                 inputConnection.beginBatchEdit();
                 inputConnection.deleteSurroundingTextInCodePoints(1, 0);
-                inputConnection.commitText(new String(Character.toChars(keyCharacterCodePoint)), 1);
+                inputConnection.commitText(CodePointStrings.get(keyCharacterCodePoint), 1);
                 findAndComposeLastWord(inputConnection);
                 inputConnection.endBatchEdit();
             }
@@ -401,14 +772,99 @@ public class KeyboardInputHandler implements InputHandler {
     }
 
     private void composeNewCharacter(InputConnection inputConnection, int keyCharacterCodePoint) {
+        appendToComposer(keyCharacterCodePoint);
+        if (isWordCharacter(keyCharacterCodePoint)) {
+            if (!slideComposingWindow(inputConnection)) {
+                composingTextCoalescer.request();
+            }
+        } else {
+            // Commit replaces composing region with the whole text, so pending update isn't needed
+            commitComposingText(inputConnection);
+        }
+    }
+
+    private void appendToComposer(int keyCharacterCodePoint) {
+        if (textComposer.length() == 0) {
+            // New token starts
+            composingWindowSlid = false;
+        }
         textComposer.appendCodePoint(keyCharacterCodePoint);
+    }
+
+    /**
+     * Keeps per-key cost of very long tokens (URLs, hashes, compound words) flat: once the composer exceeds the window,
+     * the head of the token is committed and only the trailing half of the window stays composed
+     *
+     * @return true if the window has been moved and the new composing text has been sent
+     */
+    private boolean slideComposingWindow(InputConnection inputConnection) {
+        if (textComposer.length() <= composingWindowLength) {
+            return false;
+        }
+
+        int headLength = alignToCodePoint(textComposer, textComposer.length() - composingWindowLength / 2);
+        composingTextCoalescer.cancel();
+        inputConnection.beginBatchEdit();
+        inputConnection.commitText(textComposer.substring(0, headLength), 1);
+        textComposer.delete(0, headLength);
         inputConnection.setComposingText(textComposer, 1);
-        if (!Character.isLetterOrDigit(keyCharacterCodePoint) &&
-                !nonLetterOrDigitExclusions.contains(new String(Character.toChars(keyCharacterCodePoint)))) {
-            commitComposingText(inputConnection);
+        inputConnection.endBatchEdit();
+        composingWindowSlid = true;
+        return true;
+    }
+
+    /**
+     * @return given index moved forward if it splits a surrogate pair
+     */
+    private static int alignToCodePoint(CharSequence str, int index) {
+        return index > 0 && index < str.length() && Character.isLowSurrogate(str.charAt(index)) ? index + 1 : index;
+    }
+
+    /**
+     * @return false if composing token can't be a word (e.g. a hash, a number or a part of too long token),
+     * so looking up suggestions for it is pointless
+     */
+    public boolean isComposingTextLexical() {
+        return textComposer.length() == 0 || (!composingWindowSlid && LexicalTokenFilter.isLexical(textComposer));
+    }
+
+    private void sendComposingText() {
+        InputConnection inputConnection = pocketBoardIME.getMirroredInputConnection();
+        if (inputConnection != null && textComposer.length() > 0) {
+            inputConnection.setComposingText(textComposer, 1);
         }
     }
 
+    /**
+     * Sends pending composing text and sequenced key events,
+     * must be called before anything else reaches the editor outside of this handler.
+     * Streamed text isn't flushed, nothing else may reach the editor while {@link #isStreamingText()}
+     */
+    public void flushPendingEdits() {
+        flushCompose(pocketBoardIME.getMirroredInputConnection());
+        composingTextCoalescer.flush();
+        inputEventSequencer.flush();
+    }
+
+    public boolean isStreamingText() {
+        return chunkedTextCommitter.isPending();
+    }
+
+    /**
+     * Editor is gone, so the rest of the streamed text has nowhere to go
+     */
+    public void cancelTextStream() {
+        chunkedTextCommitter.cancel();
+    }
+
+    public FrameUpdateCoalescer getComposingTextCoalescer() {
+        return composingTextCoalescer;
+    }
+
+    private boolean isWordCharacter(int codePoint) {
+        return wordCharacterClassifier.isWordCharacter(codePoint);
+    }
+
     private void handlePunctuationCharacter(InputConnection inputConnection, int keyCharacterCodePoint, boolean removeLastCharacter) {
         inputConnection.beginBatchEdit();
 
@@ -423,9 +879,11 @@ public class KeyboardInputHandler implements InputHandler {
         CharSequence lastChars = inputConnection.getTextBeforeCursor(3, 0);
         if (CharacterUtils.isLetterOrDigitAndSpace(lastChars)) {
             inputConnection.deleteSurroundingText(1, 0);
-            inputConnection.commitText(new String(Character.toChars(keyCharacterCodePoint)) + " ", 1);
+            textBuffer.setLength(0);
+            textBuffer.appendCodePoint(keyCharacterCodePoint).append(' ');
+            inputConnection.commitText(textBuffer, 1);
         } else {
-            inputConnection.commitText(new String(Character.toChars(keyCharacterCodePoint)), 1);
+            inputConnection.commitText(CodePointStrings.get(keyCharacterCodePoint), 1);
         }
 
         inputConnection.endBatchEdit();
@@ -433,10 +891,13 @@ public class KeyboardInputHandler implements InputHandler {
 
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     private boolean handleDictAndAutocorrection() {
+        // Suggestions must match the last typed character
+        pocketBoardIME.getSuggestionsManager().flushUpdate();
+
         if (dictShortcuts) {
             CharSequence dictSuggestion = pocketBoardIME.getSuggestionsManager().getCurrentDictSuggestion();
             if (dictSuggestion != null) {
-                applySuggestion(dictSuggestion, pocketBoardIME.getCurrentInputConnection(), false);
+                applySuggestion(dictSuggestion, pocketBoardIME.getMirroredInputConnection(), false);
                 return true;
             }
         }
@@ -444,7 +905,7 @@ public class KeyboardInputHandler implements InputHandler {
         if (autocorrection) {
             CharSequence recommendedSuggestion = pocketBoardIME.getSuggestionsManager().getCurrentSpellcheckerRecommendedSuggestion();
             if (recommendedSuggestion != null) {
-                applySuggestion(recommendedSuggestion, pocketBoardIME.getCurrentInputConnection(), false);
+                applySuggestion(recommendedSuggestion, pocketBoardIME.getMirroredInputConnection(), false);
                 return true;
             }
         }
@@ -452,23 +913,73 @@ public class KeyboardInputHandler implements InputHandler {
         return false;
     }
 
+    /**
+     * Large text (e.g. a user dictionary phrase) could exceed the binder transaction limit or stall the editor
+     * in a single commit, so it's streamed in chunks paced by the editor. Input is rejected until the stream ends
+     */
+    private void commitLargeText(InputConnection inputConnection, CharSequence text, boolean appendSpace) {
+        if (rawInputMode) {
+            // Stream keeps its place after synthesized key events which are still pending
+            chunkedTextCommitter.appendText(text);
+            inputEventSequencer.post(chunkedTextCommitter::start);
+            return;
+        }
+
+        if (composingEnabled && textComposer.length() > 0) {
+            // Text replaces the composing word
+            composingTextCoalescer.cancel();
+            textComposer.setLength(0);
+            inputConnection.commitText("", 1);
+        }
+        if (appendSpace) {
+            chunkedTextCommitter.commitText(text + " ");
+            lastKeyDownTime = SystemClock.uptimeMillis();
+        } else {
+            chunkedTextCommitter.commitText(text);
+        }
+    }
+
     private void commitComposingText(InputConnection inputConnection) {
+        composingTextCoalescer.cancel();
         if (inputConnection != null && textComposer.length() > 0) {
             inputConnection.commitText(textComposer, 1);
             textComposer.setLength(0);
         }
     }
 
+    /**
+     * Editor turned out to ignore text edits, the rest of the input goes as key events
+     */
+    public void switchToRawInputMode(InputConnection inputConnection) {
+        resetComposing(inputConnection);
+        resetCompose();
+        rawInputMode = true;
+        composingEnabled = false;
+        dictShortcuts = false;
+        autocorrection = false;
+    }
+
     public void resetComposing(InputConnection inputConnection) {
+        flushCompose(inputConnection);
+        finishMultiTap(inputConnection);
         if (composingEnabled) {
             commitComposingText(inputConnection);
         }
     }
 
     public void commitEmoji(CharSequence itemValue) {
-        InputConnection inputConnection = pocketBoardIME.getCurrentInputConnection();
+        if (chunkedTextCommitter.isPending()) {
+            return;
+        }
+        InputConnection inputConnection = pocketBoardIME.getMirroredInputConnection();
+        flushCompose(inputConnection);
+        finishMultiTap(inputConnection);
         commitComposingText(inputConnection);
-        applySuggestion(itemValue, pocketBoardIME.getCurrentInputConnection(), false);
+        applySuggestion(itemValue, pocketBoardIME.getMirroredInputConnection(), false);
+    }
+
+    public KeyboardMappingManager getKeyboardMappingManager() {
+        return keyboardMappingManager;
     }
 
     public boolean isInRawInputMode() {
@@ -6,6 +6,7 @@ import android.view.KeyEvent;
 import android.view.inputmethod.InputConnection;
 
 import com.sinux.pocketboard.PocketBoardIME;
+import com.sinux.pocketboard.input.mapping.SymPadMapping;
 import com.sinux.pocketboard.utils.InputUtils;
 
 public class SymPadInputHandler extends ProxyInputHandler {
@@ -23,42 +24,20 @@ public class SymPadInputHandler extends ProxyInputHandler {
 
     @Override
     protected int translateShortPressKeyCode(int keyCode) {
-        return switch (keyCode) {
-            // R, U - Home, F, J - End (text navigation)
-            case KeyEvent.KEYCODE_R, KeyEvent.KEYCODE_U -> KeyEvent.KEYCODE_MOVE_HOME;
-            case KeyEvent.KEYCODE_F, KeyEvent.KEYCODE_J -> KeyEvent.KEYCODE_MOVE_END;
-            // Q, W, E, A, S, D, Z, X, C or I, O, P, K, L, DEL, N, M, ENTER - 9-positional D-pad
-            case KeyEvent.KEYCODE_Q, KeyEvent.KEYCODE_I -> KeyEvent.KEYCODE_DPAD_UP_LEFT;
-            case KeyEvent.KEYCODE_W, KeyEvent.KEYCODE_O -> KeyEvent.KEYCODE_DPAD_UP;
-            case KeyEvent.KEYCODE_E, KeyEvent.KEYCODE_P -> KeyEvent.KEYCODE_DPAD_UP_RIGHT;
-            case KeyEvent.KEYCODE_A, KeyEvent.KEYCODE_K -> KeyEvent.KEYCODE_DPAD_LEFT;
-            case KeyEvent.KEYCODE_S, KeyEvent.KEYCODE_L -> KeyEvent.KEYCODE_DPAD_CENTER;
-            case KeyEvent.KEYCODE_D, KeyEvent.KEYCODE_DEL -> KeyEvent.KEYCODE_DPAD_RIGHT;
-            case KeyEvent.KEYCODE_Z, KeyEvent.KEYCODE_N -> KeyEvent.KEYCODE_DPAD_DOWN_LEFT;
-            case KeyEvent.KEYCODE_X, KeyEvent.KEYCODE_M -> KeyEvent.KEYCODE_DPAD_DOWN;
-            case KeyEvent.KEYCODE_C, KeyEvent.KEYCODE_ENTER -> KeyEvent.KEYCODE_DPAD_DOWN_RIGHT;
-            // V - Prev, Space - Play/Pause, B - Next (media navigation)
-            case KeyEvent.KEYCODE_V -> KeyEvent.KEYCODE_MEDIA_PREVIOUS;
-            case KeyEvent.KEYCODE_SPACE -> KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE;
-            case KeyEvent.KEYCODE_B -> KeyEvent.KEYCODE_MEDIA_NEXT;
-            // T - Esc, Y - Enter
-            case KeyEvent.KEYCODE_T -> KeyEvent.KEYCODE_ESCAPE;
-            case KeyEvent.KEYCODE_Y -> KeyEvent.KEYCODE_ENTER;
-            // G - Backspace, H - Forward delete
-            case KeyEvent.KEYCODE_G -> KeyEvent.KEYCODE_DEL;
-            case KeyEvent.KEYCODE_H -> KeyEvent.KEYCODE_FORWARD_DEL;
-            default -> 0;
-        };
+        return getSymPadMapping().getShortPressKeyCode(keyCode);
     }
 
     @Override
     protected int translateLongPressKeyCode(int keyCode) {
-        return switch (keyCode) {
-            // V - Rewind, B - Fast forward (media navigation)
-            case KeyEvent.KEYCODE_V -> KeyEvent.KEYCODE_MEDIA_REWIND;
-            case KeyEvent.KEYCODE_B -> KeyEvent.KEYCODE_MEDIA_FAST_FORWARD;
-            default -> 0;
-        };
+        return getSymPadMapping().getLongPressKeyCode(keyCode);
+    }
+
+    /**
+     * Key translations are defined by sympad_mapping.xml or an imported custom mapping,
+     * the manager reloads them when another one is imported
+     */
+    private SymPadMapping getSymPadMapping() {
+        return pocketBoardIME.getKeyboardInputHandler().getKeyboardMappingManager().getSymPadMapping();
     }
 
     @Override
@@ -0,0 +1,95 @@
+package com.sinux.pocketboard.input.mapping;
+
+/**
+ * Compose sequence which is being typed. Characters of an unresolved sequence aren't sent to the editor,
+ * so whatever has to be printed is appended to the given output instead
+ */
+public final class ComposeSequence {
+
+    private final StringBuilder characters;
+    private ComposeTable table;
+    private int state;
+
+    public ComposeSequence() {
+        characters = new StringBuilder();
+        table = ComposeTable.EMPTY;
+        state = ComposeTable.ROOT_STATE;
+    }
+
+    public boolean isPending() {
+        return state != ComposeTable.ROOT_STATE;
+    }
+
+    /**
+     * Passes the character through compose state machine, so only resolved sequences reach the output.
+     * Broken sequence is printed as typed and the character starts over
+     */
+    public void next(ComposeTable table, int codePoint, StringBuilder output) {
+        if (isPending()) {
+            int nextState = this.table.next(state, codePoint);
+            if (nextState != ComposeTable.NO_STATE) {
+                advance(nextState, codePoint, output);
+                return;
+            }
+            flush(output);
+        }
+
+        int nextState = table.next(ComposeTable.ROOT_STATE, codePoint);
+        if (nextState == ComposeTable.NO_STATE) {
+            output.appendCodePoint(codePoint);
+            return;
+        }
+        this.table = table;
+        advance(nextState, codePoint, output);
+    }
+
+    /**
+     * Replaces the last pending character, e.g. while key values are iterated
+     */
+    public void replaceLast(ComposeTable table, int codePoint, StringBuilder output) {
+        if (isPending()) {
+            characters.setLength(characters.length() - Character.charCount(characters.codePointBefore(characters.length())));
+            state = ComposeTable.ROOT_STATE;
+            for (int i = 0; i < characters.length(); i += Character.charCount(characters.codePointAt(i))) {
+                state = this.table.next(state, characters.codePointAt(i));
+            }
+        }
+        next(table, codePoint, output);
+    }
+
+    /**
+     * Ends the sequence at a commit boundary (e.g. space, enter or a cursor move made by the keyboard):
+     * resolved sequence is printed as its value, unresolved one as typed
+     */
+    public void flush(StringBuilder output) {
+        if (!isPending()) {
+            return;
+        }
+
+        int value = table.getValue(state);
+        if (value != 0) {
+            output.appendCodePoint(value);
+        } else {
+            output.append(characters);
+        }
+        reset();
+    }
+
+    /**
+     * Drops the sequence, e.g. when the cursor has been moved away from where it has been typed
+     */
+    public void reset() {
+        state = ComposeTable.ROOT_STATE;
+        characters.setLength(0);
+    }
+
+    private void advance(int nextState, int codePoint, StringBuilder output) {
+        if (table.hasTransitions(nextState)) {
+            state = nextState;
+            characters.appendCodePoint(codePoint);
+        } else {
+            reset();
+            output.appendCodePoint(table.getValue(nextState));
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.sinux.pocketboard.input.mapping;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * State machine built from compose sequences (dead keys and multi-key sequences, e.g. "´" + "e" = "é").
+ * States are trie nodes, transitions are stored in an open addressing table keyed by (state, code point),
+ * so advancing the machine with next character is a single hash probe
+ */
+public final class ComposeTable {
+
+    public static final int ROOT_STATE = 0;
+    public static final int NO_STATE = -1;
+
+    static final ComposeTable EMPTY = new ComposeTable(Collections.emptyMap());
+
+    private static final long EMPTY_SLOT = 0;
+
+    private final Map<String, Integer> sequences;
+
+    private final long[] transitionKeys;
+    private final int[] transitionStates;
+    private final int transitionMask;
+
+    /**
+     * Code point produced when the sequence ends at the state, 0 for intermediate states
+     */
+    private final int[] stateValues;
+    private final boolean[] stateHasTransitions;
+
+    /**
+     * @param sequences compose sequences of at least two code points with resulting code points
+     */
+    public ComposeTable(Map<String, Integer> sequences) {
+        this.sequences = Collections.unmodifiableMap(new HashMap<>(sequences));
+
+        Map<Long, Integer> transitions = new HashMap<>();
+        Map<Integer, Integer> values = new HashMap<>();
+        int stateCount = 1;
+
+        for (Map.Entry<String, Integer> entry : sequences.entrySet()) {
+            String sequence = entry.getKey();
+            if (sequence.codePointCount(0, sequence.length()) < 2) {
+                throw new IllegalArgumentException("Compose sequence must have at least two characters: " + sequence);
+            }
+            if (entry.getValue() == null || entry.getValue() == 0) {
+                throw new IllegalArgumentException("Compose sequence must have a value: " + sequence);
+            }
+
+            int state = ROOT_STATE;
+            for (int i = 0; i < sequence.length(); i += Character.charCount(sequence.codePointAt(i))) {
+                long key = transitionKey(state, sequence.codePointAt(i));
+                Integer nextState = transitions.get(key);
+                if (nextState == null) {
+                    nextState = stateCount++;
+                    transitions.put(key, nextState);
+                }
+                state = nextState;
+            }
+            values.put(state, entry.getValue());
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(transitions.size(), 1) * 2) * 2;
+        transitionKeys = new long[capacity];
+        transitionStates = new int[capacity];
+        transitionMask = capacity - 1;
+        stateValues = new int[stateCount];
+        stateHasTransitions = new boolean[stateCount];
+
+        for (Map.Entry<Long, Integer> entry : transitions.entrySet()) {
+            long key = entry.getKey();
+            int slot = slot(key);
+            while (transitionKeys[slot] != EMPTY_SLOT) {
+                slot = (slot + 1) & transitionMask;
+            }
+            transitionKeys[slot] = key;
+            transitionStates[slot] = entry.getValue();
+            stateHasTransitions[(int) (key >>> 32)] = true;
+        }
+        for (Map.Entry<Integer, Integer> entry : values.entrySet()) {
+            stateValues[entry.getKey()] = entry.getValue();
+        }
+    }
+
+    /**
+     * @return state reached from the given one by the code point or {@link #NO_STATE} if there is no such transition
+     */
+    public int next(int state, int codePoint) {
+        long key = transitionKey(state, codePoint);
+        int slot = slot(key);
+        long slotKey;
+        while ((slotKey = transitionKeys[slot]) != EMPTY_SLOT) {
+            if (slotKey == key) {
+                return transitionStates[slot];
+            }
+            slot = (slot + 1) & transitionMask;
+        }
+        return NO_STATE;
+    }
+
+    /**
+     * @return code point produced by the sequence which ends at the state or 0 if the sequence is incomplete
+     */
+    public int getValue(int state) {
+        return stateValues[state];
+    }
+
+    /**
+     * @return whether the state can be continued by more characters, otherwise its sequence is resolved
+     */
+    public boolean hasTransitions(int state) {
+        return stateHasTransitions[state];
+    }
+
+    /**
+     * @return code points produced by sequences of all states, 0 for intermediate states
+     */
+    int[] getStateValues() {
+        return stateValues;
+    }
+
+    public boolean isEmpty() {
+        return sequences.isEmpty();
+    }
+
+    /**
+     * Builds new table with sequences of given table added to sequences of this one
+     */
+    public ComposeTable withOverlay(ComposeTable overlayTable) {
+        if (overlayTable.isEmpty()) {
+            return this;
+        }
+        Map<String, Integer> result = new HashMap<>(sequences);
+        result.putAll(overlayTable.sequences);
+        return new ComposeTable(result);
+    }
+
+    Map<String, Integer> getSequences() {
+        return sequences;
+    }
+
+    private int slot(long key) {
+        int hash = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & transitionMask;
+    }
+
+    private static long transitionKey(int state, int codePoint) {
+        // Code point is never 0, so the key can't collide with an empty slot
+        return ((long) state << 32) | codePoint;
+    }
+}
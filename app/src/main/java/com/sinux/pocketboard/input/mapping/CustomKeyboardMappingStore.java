@@ -0,0 +1,170 @@
+package com.sinux.pocketboard.input.mapping;
+
+import android.content.Context;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Storage of user-supplied keyboard or SymPad mappings. Imported XML is validated and compiled once,
+ * compiled mapping is cached under the SHA-256 of the source, so the IME doesn't parse user XML on start.
+ * Source is kept next to the compiled mapping to rebuild it when the compiled format changes
+ */
+public final class CustomKeyboardMappingStore {
+
+    public static final String CUSTOM_KEYBOARD_MAPPING = "custom";
+    public static final String CUSTOM_SYMPAD_MAPPING = "custom_sympad";
+
+    private static final String SOURCE_EXTENSION = ".xml";
+    private static final int MAX_SOURCE_SIZE = 1024 * 1024;
+
+    private final File cacheDir;
+    private final boolean symPad;
+
+    /**
+     * @param mappingName {@link #CUSTOM_KEYBOARD_MAPPING} or {@link #CUSTOM_SYMPAD_MAPPING}, each one has its own storage
+     */
+    public CustomKeyboardMappingStore(Context context, String mappingName) {
+        // Same storage as preferences, IME must work before the user unlocks the device
+        this(new File(context.createDeviceProtectedStorageContext().getFilesDir(),
+                        mappingName + "_" + KeyboardMappingSerializer.ASSETS_DIR),
+                CUSTOM_SYMPAD_MAPPING.equals(mappingName));
+    }
+
+    CustomKeyboardMappingStore(File cacheDir, boolean symPad) {
+        this.cacheDir = cacheDir;
+        this.symPad = symPad;
+    }
+
+    /**
+     * Validates and compiles mapping XML, previously imported mappings are removed
+     *
+     * @return content hash which identifies the imported mapping
+     * @throws Exception if the mapping is malformed or can't be stored
+     */
+    public String importMapping(InputStream inputStream) throws Exception {
+        byte[] source = readSource(inputStream);
+        String hash = toHex(MessageDigest.getInstance("SHA-256").digest(source));
+
+        if (!getCompiledFile(hash).isFile()) {
+            KeyboardMapping mapping = parseMapping(source);
+
+            if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+                throw new IOException("Can't create " + cacheDir);
+            }
+            writeFile(getSourceFile(hash), out -> out.write(source));
+            writeFile(getCompiledFile(hash), out -> KeyboardMappingSerializer.write(mapping, out));
+        }
+
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().startsWith(hash)) {
+                    file.delete();
+                }
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * @param hash content hash returned by {@link #importMapping(InputStream)}
+     */
+    public KeyboardMapping loadMapping(String hash) throws IOException {
+        if (hash == null || hash.isEmpty()) {
+            throw new IOException("Custom keyboard mapping is not imported");
+        }
+        try (InputStream in = new FileInputStream(getCompiledFile(hash))) {
+            return KeyboardMappingSerializer.read(in);
+        } catch (IOException e) {
+            // Compiled mapping is outdated or damaged, rebuild it from the source
+            File sourceFile = getSourceFile(hash);
+            if (!sourceFile.isFile()) {
+                throw e;
+            }
+            try (InputStream in = new FileInputStream(sourceFile)) {
+                KeyboardMapping mapping = parseMapping(readSource(in));
+                writeFile(getCompiledFile(hash), out -> KeyboardMappingSerializer.write(mapping, out));
+                return mapping;
+            } catch (Exception parseException) {
+                throw new IOException("Can't rebuild custom keyboard mapping", parseException);
+            }
+        }
+    }
+
+    private File getCompiledFile(String hash) {
+        return new File(cacheDir, hash + KeyboardMappingSerializer.FILE_EXTENSION);
+    }
+
+    private File getSourceFile(String hash) {
+        return new File(cacheDir, hash + SOURCE_EXTENSION);
+    }
+
+    /**
+     * Writes the file atomically, so the IME never sees partially written mapping
+     */
+    private static void writeFile(File file, FileWriter writer) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tempFile)) {
+            writer.write(out);
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Can't store " + file);
+        }
+    }
+
+    private KeyboardMapping parseMapping(byte[] source) throws Exception {
+        XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        parser.setInput(new ByteArrayInputStream(source), null);
+        KeyboardMappingParser mappingParser = new KeyboardMappingParser(parser);
+        KeyboardMapping mapping = mappingParser.parseMapping();
+        if (mappingParser.isSymPadMapping() != symPad) {
+            throw new IllegalArgumentException(symPad ? "SymPadMapping is expected" : "KeyboardMapping is expected");
+        }
+        if (mapping.isOverlay()) {
+            throw new IllegalArgumentException("Custom keyboard mapping can't be an overlay");
+        }
+        if (symPad) {
+            // Reject key codes which don't fit translation tables
+            SymPadMapping.fromKeyboardMapping(mapping);
+        }
+        return mapping;
+    }
+
+    private static byte[] readSource(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+            if (out.size() > MAX_SOURCE_SIZE) {
+                throw new IOException("Keyboard mapping is too large");
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private interface FileWriter {
+        void write(OutputStream out) throws IOException;
+    }
+}
@@ -1,11 +1,22 @@
 package com.sinux.pocketboard.input.mapping;
 
+import java.util.Arrays;
+
 public final class KeyMapping {
 
+    private static final KeyMappingValue[] NO_VALUES = new KeyMappingValue[0];
+
     private final KeyMappingValue[] keyMappingValues;
-    private final boolean hasAdditionalValues;
     private final KeyMappingValue[] keyMappingAltValues;
-    private final boolean hasAltValues;
+
+    /**
+     * Resolved values for each meta state with all fallbacks already applied:
+     * missing shift value falls back to the plain one, missing alt values fall back to plain/shift planes
+     */
+    private final int[] plainValues;
+    private final int[] shiftValues;
+    private final int[] altValues;
+    private final int[] altShiftValues;
     private final boolean hasAdditionalAltValues;
 
     public KeyMapping(KeyMappingValue[] keyMappingValues, KeyMappingValue[] keyMappingAltValues) {
@@ -13,58 +24,98 @@ public final class KeyMapping {
             throw new IllegalArgumentException("KeyMapping must have at least one value");
         }
         this.keyMappingValues = keyMappingValues;
-        hasAdditionalValues = keyMappingValues.length > 1;
+        this.keyMappingAltValues = keyMappingAltValues != null ? keyMappingAltValues : NO_VALUES;
+
+        plainValues = resolvePlainValues(keyMappingValues);
+        shiftValues = resolveShiftValues(keyMappingValues);
+
+        if (keyMappingAltValues != null && keyMappingAltValues.length > 0) {
+            altValues = resolvePlainValues(keyMappingAltValues);
+            altShiftValues = resolveShiftValues(keyMappingAltValues);
+            hasAdditionalAltValues = keyMappingAltValues.length > 1;
+        } else {
+            altValues = plainValues;
+            altShiftValues = shiftValues;
+            // Plain values aren't iterated in alt mode
+            hasAdditionalAltValues = false;
+        }
+    }
+
+    private KeyMapping(KeyMappingValue[] keyMappingValues, KeyMappingValue[] keyMappingAltValues,
+                       int[] plainValues, int[] shiftValues, int[] altValues, int[] altShiftValues,
+                       boolean hasAdditionalAltValues) {
+        this.keyMappingValues = keyMappingValues;
         this.keyMappingAltValues = keyMappingAltValues;
-        hasAltValues = keyMappingAltValues != null && keyMappingAltValues.length > 0;
-        hasAdditionalAltValues = hasAltValues && keyMappingAltValues.length > 1;
+        this.plainValues = plainValues;
+        this.shiftValues = shiftValues;
+        this.altValues = altValues;
+        this.altShiftValues = altShiftValues;
+        this.hasAdditionalAltValues = hasAdditionalAltValues;
     }
 
     public int getValue(boolean shiftEnabled, boolean altEnabled, byte keyIndex) {
-        if (shiftEnabled) {
-            if (altEnabled) {
-                return getAltShiftValue(keyIndex);
-            } else {
-                return getShiftValue(keyIndex);
-            }
-        } else {
-            if (altEnabled) {
-                return getAltValue(keyIndex);
-            } else {
-                return getValue(keyIndex);
-            }
-        }
+        int[] values = altEnabled ? (shiftEnabled ? altShiftValues : altValues) : (shiftEnabled ? shiftValues : plainValues);
+        int index = keyIndex & 0xFF;
+        return values[index < values.length ? index : index % values.length];
     }
 
     public boolean hasAdditionalValues(boolean altEnabled) {
-        return altEnabled ? hasAdditionalAltValues : hasAdditionalValues;
+        return altEnabled ? hasAdditionalAltValues : plainValues.length > 1;
     }
 
-    private int getValue(byte keyIndex) {
-        int index = (keyIndex & 0xFF) % keyMappingValues.length;
-        return keyMappingValues[index].getValue();
+    KeyMappingValue[] getKeyMappingValues() {
+        return keyMappingValues;
     }
 
-    private int getShiftValue(byte keyIndex) {
-        int index = (keyIndex & 0xFF) % keyMappingValues.length;
-        return keyMappingValues[index].getShiftValue() != 0 ? keyMappingValues[index].getShiftValue() : getValue(keyIndex);
+    KeyMappingValue[] getKeyMappingAltValues() {
+        return keyMappingAltValues;
     }
 
-    private int getAltValue(byte keyIndex) {
-        if (hasAltValues) {
-            int index = (keyIndex & 0xFF) % keyMappingAltValues.length;
-            return keyMappingAltValues[index].getValue();
-        } else {
-            return getValue(keyIndex);
+    /**
+     * @return equal mapping whose value arrays and resolved planes are shared through the given pool
+     */
+    KeyMapping intern(KeyMappingPool pool) {
+        int[] internedPlainValues = pool.intern(plainValues);
+        int[] internedShiftValues = pool.intern(shiftValues);
+        return new KeyMapping(
+                pool.intern(keyMappingValues),
+                pool.intern(keyMappingAltValues),
+                internedPlainValues,
+                internedShiftValues,
+                altValues == plainValues ? internedPlainValues : pool.intern(altValues),
+                altShiftValues == shiftValues ? internedShiftValues : pool.intern(altShiftValues),
+                hasAdditionalAltValues
+        );
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof KeyMapping)) return false;
+        KeyMapping that = (KeyMapping) o;
+        return Arrays.equals(keyMappingValues, that.keyMappingValues)
+                && Arrays.equals(keyMappingAltValues, that.keyMappingAltValues);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(keyMappingValues) + Arrays.hashCode(keyMappingAltValues);
+    }
+
+    private static int[] resolvePlainValues(KeyMappingValue[] keyMappingValues) {
+        int[] result = new int[keyMappingValues.length];
+        for (int i = 0; i < keyMappingValues.length; i++) {
+            result[i] = keyMappingValues[i].getValue();
         }
+        return result;
     }
 
-    private int getAltShiftValue(byte keyIndex) {
-        if (hasAltValues) {
-            int index = (keyIndex & 0xFF) % keyMappingAltValues.length;
-            int shiftValue = keyMappingAltValues[index].getShiftValue();
-            return shiftValue != 0 ? shiftValue : getAltValue(keyIndex);
-        } else {
-            return getShiftValue(keyIndex);
+    private static int[] resolveShiftValues(KeyMappingValue[] keyMappingValues) {
+        int[] result = new int[keyMappingValues.length];
+        for (int i = 0; i < keyMappingValues.length; i++) {
+            int shiftValue = keyMappingValues[i].getShiftValue();
+            result[i] = shiftValue != 0 ? shiftValue : keyMappingValues[i].getValue();
         }
+        return result;
     }
 }
@@ -0,0 +1,115 @@
+package com.sinux.pocketboard.input.mapping;
+
+import com.sinux.pocketboard.utils.CodePointStrings;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns key mappings and their parts, so identical keys, values and resolved planes
+ * (e.g. digits and punctuation on the Alt layer) are kept in memory once for all loaded layouts
+ */
+final class KeyMappingPool {
+
+    private final Map<KeyMapping, KeyMapping> keyMappings = new HashMap<>();
+    private final Map<KeyMappingValue, KeyMappingValue> values = new HashMap<>();
+    private final Map<List<KeyMappingValue>, KeyMappingValue[]> valueArrays = new HashMap<>();
+    private final Map<IntArrayKey, int[]> planes = new HashMap<>();
+
+    synchronized KeyboardMapping intern(KeyboardMapping keyboardMapping) {
+        Map<Integer, KeyMapping> result = keyboardMapping.toMap();
+        for (Map.Entry<Integer, KeyMapping> entry : result.entrySet()) {
+            entry.setValue(intern(entry.getValue()));
+        }
+        registerCodePointStrings(result.values(), keyboardMapping.getComposeTable());
+        return new KeyboardMapping(result, keyboardMapping.getComposeTable(), keyboardMapping.isOverlay());
+    }
+
+    /**
+     * Caches strings of all characters the mapping can print, so typing them doesn't allocate
+     */
+    private static void registerCodePointStrings(Collection<KeyMapping> keyMappings, ComposeTable composeTable) {
+        int[] composeValues = composeTable.getStateValues();
+        int[] codePoints = new int[composeValues.length + keyMappings.size() * 8];
+        int count = 0;
+        for (KeyMapping keyMapping : keyMappings) {
+            for (KeyMappingValue[] values : new KeyMappingValue[][]{keyMapping.getKeyMappingValues(), keyMapping.getKeyMappingAltValues()}) {
+                for (KeyMappingValue value : values) {
+                    if (count + 2 > codePoints.length) {
+                        codePoints = Arrays.copyOf(codePoints, codePoints.length * 2 + 2);
+                    }
+                    codePoints[count++] = value.getValue();
+                    codePoints[count++] = value.getShiftValue();
+                }
+            }
+        }
+        codePoints = Arrays.copyOf(codePoints, count + composeValues.length);
+        System.arraycopy(composeValues, 0, codePoints, count, composeValues.length);
+        CodePointStrings.register(codePoints);
+    }
+
+    private KeyMapping intern(KeyMapping keyMapping) {
+        KeyMapping result = keyMappings.get(keyMapping);
+        if (result == null) {
+            result = keyMapping.intern(this);
+            keyMappings.put(result, result);
+        }
+        return result;
+    }
+
+    KeyMappingValue[] intern(KeyMappingValue[] array) {
+        List<KeyMappingValue> key = Arrays.asList(array);
+        KeyMappingValue[] result = valueArrays.get(key);
+        if (result == null) {
+            result = new KeyMappingValue[array.length];
+            for (int i = 0; i < array.length; i++) {
+                result[i] = intern(array[i]);
+            }
+            valueArrays.put(Arrays.asList(result), result);
+        }
+        return result;
+    }
+
+    int[] intern(int[] plane) {
+        IntArrayKey key = new IntArrayKey(plane);
+        int[] result = planes.get(key);
+        if (result == null) {
+            result = plane;
+            planes.put(key, result);
+        }
+        return result;
+    }
+
+    private KeyMappingValue intern(KeyMappingValue value) {
+        KeyMappingValue result = values.get(value);
+        if (result == null) {
+            result = value;
+            values.put(result, result);
+        }
+        return result;
+    }
+
+    private static final class IntArrayKey {
+
+        private final int[] array;
+        private final int hashCode;
+
+        IntArrayKey(int[] array) {
+            this.array = array;
+            hashCode = Arrays.hashCode(array);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntArrayKey && Arrays.equals(array, ((IntArrayKey) o).array);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
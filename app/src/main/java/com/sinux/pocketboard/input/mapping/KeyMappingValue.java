@@ -20,4 +20,17 @@ public final class KeyMappingValue {
     public int getShiftValue() {
         return shiftValue;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof KeyMappingValue)) return false;
+        KeyMappingValue that = (KeyMappingValue) o;
+        return value == that.value && shiftValue == that.shiftValue;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * value + shiftValue;
+    }
 }
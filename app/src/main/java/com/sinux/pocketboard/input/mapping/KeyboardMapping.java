@@ -1,20 +1,138 @@
 package com.sinux.pocketboard.input.mapping;
 
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 
 public final class KeyboardMapping {
 
-    private final Map<Integer, KeyMapping> keyMappings;
+    /**
+     * Android key codes are small positive ints, so most of them fit into a dense table,
+     * anything above this limit (or negative) goes to the sparse fallback
+     */
+    static final int DENSE_KEY_CODE_LIMIT = 512;
+
+    private final KeyMapping[] denseKeyMappings;
+    private final int[] sparseKeyCodes;
+    private final KeyMapping[] sparseKeyMappings;
+    private final ComposeTable composeTable;
+    private final boolean overlay;
 
     public KeyboardMapping(Map<Integer, KeyMapping> keyMappings) {
+        this(keyMappings, ComposeTable.EMPTY, false);
+    }
+
+    public KeyboardMapping(Map<Integer, KeyMapping> keyMappings, boolean overlay) {
+        this(keyMappings, ComposeTable.EMPTY, overlay);
+    }
+
+    /**
+     * @param overlay whether this mapping is a device-specific delta which must be applied on top of the base mapping
+     */
+    public KeyboardMapping(Map<Integer, KeyMapping> keyMappings, ComposeTable composeTable, boolean overlay) {
         if (keyMappings == null || keyMappings.isEmpty()) {
             throw new IllegalArgumentException("KeyboardMapping cannot be empty");
         }
-        this.keyMappings = Collections.unmodifiableMap(keyMappings);
+
+        int maxDenseKeyCode = -1;
+        int sparseCount = 0;
+        for (int keyCode : keyMappings.keySet()) {
+            if (isDenseKeyCode(keyCode)) {
+                maxDenseKeyCode = Math.max(maxDenseKeyCode, keyCode);
+            } else {
+                sparseCount++;
+            }
+        }
+
+        denseKeyMappings = new KeyMapping[maxDenseKeyCode + 1];
+        sparseKeyCodes = new int[sparseCount];
+        sparseKeyMappings = new KeyMapping[sparseCount];
+
+        int sparseIndex = 0;
+        for (Map.Entry<Integer, KeyMapping> entry : keyMappings.entrySet()) {
+            int keyCode = entry.getKey();
+            if (isDenseKeyCode(keyCode)) {
+                denseKeyMappings[keyCode] = entry.getValue();
+            } else {
+                sparseKeyCodes[sparseIndex++] = keyCode;
+            }
+        }
+
+        // Keep sparse codes sorted to allow binary search
+        Arrays.sort(sparseKeyCodes);
+        for (int i = 0; i < sparseKeyCodes.length; i++) {
+            sparseKeyMappings[i] = keyMappings.get(sparseKeyCodes[i]);
+        }
+
+        this.composeTable = composeTable;
+        this.overlay = overlay;
     }
 
     public KeyMapping getKeyMapping(int keyCode) {
-        return keyMappings.get(keyCode);
+        if (keyCode >= 0 && keyCode < denseKeyMappings.length) {
+            return denseKeyMappings[keyCode];
+        }
+
+        if (sparseKeyCodes.length == 0) {
+            return null;
+        }
+
+        int index = Arrays.binarySearch(sparseKeyCodes, keyCode);
+        return index >= 0 ? sparseKeyMappings[index] : null;
+    }
+
+    public ComposeTable getComposeTable() {
+        return composeTable;
+    }
+
+    public boolean isOverlay() {
+        return overlay;
+    }
+
+    /**
+     * Builds new mapping with keys and compose sequences of given overlay mapping replacing the ones of this mapping
+     */
+    public KeyboardMapping withOverlay(KeyboardMapping overlayMapping) {
+        Map<Integer, KeyMapping> keyMappings = toMap();
+        keyMappings.putAll(overlayMapping.toMap());
+        return new KeyboardMapping(keyMappings, composeTable.withOverlay(overlayMapping.composeTable), overlay);
+    }
+
+    Map<Integer, KeyMapping> toMap() {
+        int[] keyCodes = getKeyCodes();
+        Map<Integer, KeyMapping> result = new HashMap<>(keyCodes.length * 2);
+        for (int keyCode : keyCodes) {
+            result.put(keyCode, getKeyMapping(keyCode));
+        }
+        return result;
+    }
+
+    /**
+     * @return all mapped key codes in ascending order
+     */
+    int[] getKeyCodes() {
+        int denseCount = 0;
+        for (KeyMapping keyMapping : denseKeyMappings) {
+            if (keyMapping != null) {
+                denseCount++;
+            }
+        }
+
+        int[] result = new int[denseCount + sparseKeyCodes.length];
+        int index = 0;
+        for (int keyCode = 0; keyCode < denseKeyMappings.length; keyCode++) {
+            if (denseKeyMappings[keyCode] != null) {
+                result[index++] = keyCode;
+            }
+        }
+        System.arraycopy(sparseKeyCodes, 0, result, index, sparseKeyCodes.length);
+        // Negative sparse codes must go first
+        Arrays.sort(result);
+
+        return result;
+    }
+
+    private static boolean isDenseKeyCode(int keyCode) {
+        return keyCode >= 0 && keyCode < DENSE_KEY_CODE_LIMIT;
     }
-}
\ No newline at end of file
+}
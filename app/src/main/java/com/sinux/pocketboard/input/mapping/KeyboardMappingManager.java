@@ -1,39 +1,197 @@
 package com.sinux.pocketboard.input.mapping;
 
 import android.content.Context;
+import android.database.ContentObserver;
+import android.hardware.input.InputManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.Settings;
 import android.text.TextUtils;
+import android.util.SparseIntArray;
+import android.view.InputDevice;
+import android.view.inputmethod.InputMethodInfo;
 import android.view.inputmethod.InputMethodManager;
 import android.view.inputmethod.InputMethodSubtype;
 
 import androidx.annotation.NonNull;
-import androidx.collection.LruCache;
+import androidx.annotation.Nullable;
 
 import com.sinux.pocketboard.R;
+import com.sinux.pocketboard.preferences.PreferencesHolder;
+import com.sinux.pocketboard.utils.InputUtils;
 import com.sinux.pocketboard.utils.ToastMessageUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class KeyboardMappingManager {
 
-    private static final int KEYBOARD_MAPPING_CACHE_DEPTH = 2;
     private static final String INPUT_METHOD_KEYBOARD_MAPPING = "KeyboardMapping";
+    private static final String NUMERIC_KEYBOARD_MAPPING = "numeric";
+    private static final String SYMPAD_MAPPING = "sympad_mapping";
     private static final String TITAN_MODEL_NAME = "Titan";
 
+    private static final int DEVICE_TYPE_UNKNOWN = 0;
+    private static final int DEVICE_TYPE_BUILT_IN = 1;
+    private static final int DEVICE_TYPE_EXTERNAL = 2;
+
     private final Context context;
-    private final LruCache<String, KeyboardMapping> keyboardMappings;
+    private final InputMethodManager inputMethodManager;
+    private final InputManager inputManager;
+    private final ExecutorService preloadExecutor;
+    private final ContentObserver enabledSubtypesObserver;
+    private final InputManager.InputDeviceListener inputDeviceListener;
+    private final KeyMappingPool keyMappingPool = new KeyMappingPool();
+    private final CustomKeyboardMappingStore customKeyboardMappingStore;
+    private final CustomKeyboardMappingStore customSymPadMappingStore;
+    private final String deviceModelString;
+
+    /**
+     * Input device id to device type cache, accessed from the main thread only
+     */
+    private final SparseIntArray inputDeviceTypes = new SparseIntArray();
+
+    /**
+     * Immutable registry of loaded mappings, replaced as a whole on every change
+     */
+    private volatile Map<String, KeyboardMapping> keyboardMappings = Collections.emptyMap();
+
+    /**
+     * Content hash of imported custom mapping, becomes a part of its registry key
+     */
+    private volatile String customKeyboardMappingHash;
 
+    private String currentMappingName;
+    /**
+     * Mapping for the built-in keyboard, includes device specific keys
+     */
     private KeyboardMapping currentMapping;
+    /**
+     * Base mapping for external keyboards, resolved on first use
+     */
+    private KeyboardMapping currentExternalMapping;
 
-    public KeyboardMappingManager(Context context, InputMethodManager inputMethodManager) {
+    private SymPadMapping symPadMapping;
+    /**
+     * Content hash of imported custom SymPad mapping, it replaces the bundled one if set
+     */
+    private String customSymPadMappingHash;
+
+    public KeyboardMappingManager(Context context, InputMethodManager inputMethodManager, PreferencesHolder preferencesHolder) {
         this.context = context;
-        keyboardMappings = new LruCache<>(KEYBOARD_MAPPING_CACHE_DEPTH);
+        this.inputMethodManager = inputMethodManager;
+        inputManager = context.getSystemService(InputManager.class);
+        preloadExecutor = Executors.newSingleThreadExecutor();
+        deviceModelString = getDeviceModelString();
+        customKeyboardMappingStore = new CustomKeyboardMappingStore(context, CustomKeyboardMappingStore.CUSTOM_KEYBOARD_MAPPING);
+        customKeyboardMappingHash = preferencesHolder.getCustomKeyboardMappingHash();
+        customSymPadMappingStore = new CustomKeyboardMappingStore(context, CustomKeyboardMappingStore.CUSTOM_SYMPAD_MAPPING);
+        customSymPadMappingHash = preferencesHolder.getCustomSymPadMappingHash();
+
+        // Reload custom mapping when the user imports a new one
+        preferencesHolder.registerPreferenceChangeListener(preferencesHolder.getCustomKeyboardMappingKey(), value -> {
+            customKeyboardMappingHash = (String) value;
+            if (CustomKeyboardMappingStore.CUSTOM_KEYBOARD_MAPPING.equals(currentMappingName)) {
+                setCurrentKeyboardMapping(currentMappingName);
+            }
+        });
+        preferencesHolder.registerPreferenceChangeListener(preferencesHolder.getCustomSymPadMappingKey(), value -> {
+            customSymPadMappingHash = (String) value;
+            // Loaded again on next use
+            symPadMapping = null;
+        });
+
         switchToKeyboardMapping(inputMethodManager.getCurrentInputMethodSubtype());
+
+        // Load mappings of all enabled subtypes in background and reload them when the user changes subtypes set
+        enabledSubtypesObserver = new ContentObserver(new Handler(Looper.getMainLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                preloadKeyboardMappings();
+            }
+        };
+        context.getContentResolver().registerContentObserver(
+                Settings.Secure.getUriFor(Settings.Secure.ENABLED_INPUT_METHODS), false, enabledSubtypesObserver);
+        preloadKeyboardMappings();
+
+        // Device may be reconnected with the same id or change its properties, so drop cached type on any change
+        inputDeviceListener = new InputManager.InputDeviceListener() {
+            @Override
+            public void onInputDeviceAdded(int deviceId) {
+                inputDeviceTypes.delete(deviceId);
+            }
+
+            @Override
+            public void onInputDeviceRemoved(int deviceId) {
+                inputDeviceTypes.delete(deviceId);
+            }
+
+            @Override
+            public void onInputDeviceChanged(int deviceId) {
+                inputDeviceTypes.delete(deviceId);
+            }
+        };
+        inputManager.registerInputDeviceListener(inputDeviceListener, new Handler(Looper.getMainLooper()));
     }
 
-    public KeyboardMapping getCurrentMapping() {
-        return currentMapping;
+    public void destroy() {
+        context.getContentResolver().unregisterContentObserver(enabledSubtypesObserver);
+        inputManager.unregisterInputDeviceListener(inputDeviceListener);
+        preloadExecutor.shutdownNow();
+    }
+
+    /**
+     * @param deviceId id of the input device which produced the key event, see {@link android.view.KeyEvent#getDeviceId()}
+     * @return current mapping for the given device: device specific one for the built-in keyboard and base one for external keyboards
+     */
+    public KeyboardMapping getMapping(int deviceId) {
+        int deviceType = inputDeviceTypes.get(deviceId, DEVICE_TYPE_UNKNOWN);
+        if (deviceType == DEVICE_TYPE_UNKNOWN) {
+            deviceType = resolveDeviceType(deviceId);
+            inputDeviceTypes.put(deviceId, deviceType);
+        }
+
+        if (deviceType == DEVICE_TYPE_BUILT_IN || currentMappingName == null) {
+            return currentMapping;
+        }
+
+        if (currentExternalMapping == null) {
+            KeyboardMapping mapping = getKeyboardMapping(currentMappingName, false);
+            currentExternalMapping = mapping != null ? mapping : currentMapping;
+        }
+        return currentExternalMapping;
+    }
+
+    /**
+     * @return SymPad key translation tables of imported custom mapping or the bundled one, loaded on first use
+     */
+    public SymPadMapping getSymPadMapping() {
+        if (symPadMapping == null) {
+            try {
+                KeyboardMapping mapping = TextUtils.isEmpty(customSymPadMappingHash) ? loadMappingFile(SYMPAD_MAPPING) :
+                        customSymPadMappingStore.loadMapping(customSymPadMappingHash);
+                if (mapping == null) {
+                    throw new IllegalStateException("SymPad mapping not found");
+                }
+                symPadMapping = SymPadMapping.fromKeyboardMapping(mapping);
+            } catch (Exception e) {
+                toastError();
+                symPadMapping = SymPadMapping.EMPTY;
+            }
+        }
+        return symPadMapping;
     }
 
     public void switchToNumericKeyboardMapping() {
-        setCurrentKeyboardMapping("numeric");
+        setCurrentKeyboardMapping(NUMERIC_KEYBOARD_MAPPING);
     }
 
     public void switchToKeyboardMapping(InputMethodSubtype inputMethodSubtype) {
@@ -45,17 +203,116 @@ public class KeyboardMappingManager {
             return;
         }
 
-        if (keyboardMappings.get(keyMappingFile) == null) {
-            try {
-                KeyboardMapping mapping = loadKeyboardMapping(keyMappingFile);
-                keyboardMappings.put(keyMappingFile, mapping);
-                currentMapping = mapping;
-            } catch (Exception e) {
-                toastError();
+        KeyboardMapping mapping = getKeyboardMapping(keyMappingFile, true);
+        if (mapping != null) {
+            currentMappingName = keyMappingFile;
+            currentMapping = mapping;
+            // Without device specific mappings external keyboards share the same mapping
+            currentExternalMapping = deviceModelString.isEmpty() ? mapping : null;
+        }
+    }
+
+    private KeyboardMapping getKeyboardMapping(String keyMappingFile, boolean deviceVariant) {
+        String registryKey = getRegistryKey(keyMappingFile, deviceVariant);
+        KeyboardMapping mapping = keyboardMappings.get(registryKey);
+        if (mapping != null) {
+            return mapping;
+        }
+
+        // Preloading is not finished yet or subtypes set has changed, so load it in place
+        try {
+            mapping = loadKeyboardMapping(keyMappingFile, deviceVariant);
+            publishKeyboardMappings(Collections.singletonMap(registryKey, mapping), null);
+            return mapping;
+        } catch (Exception e) {
+            toastError();
+            return null;
+        }
+    }
+
+    private String getRegistryKey(String keyMappingFile, boolean deviceVariant) {
+        if (CustomKeyboardMappingStore.CUSTOM_KEYBOARD_MAPPING.equals(keyMappingFile)) {
+            return keyMappingFile + "_" + customKeyboardMappingHash;
+        }
+        return deviceVariant ? keyMappingFile + deviceModelString : keyMappingFile;
+    }
+
+    private int resolveDeviceType(int deviceId) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            InputDevice inputDevice = InputDevice.getDevice(deviceId);
+            if (inputDevice != null && inputDevice.isExternal()) {
+                return DEVICE_TYPE_EXTERNAL;
             }
-        } else {
-            currentMapping = keyboardMappings.get(keyMappingFile);
         }
+
+        // Virtual devices (e.g. injected events) and unknown devices are treated as the built-in keyboard
+        return DEVICE_TYPE_BUILT_IN;
+    }
+
+    private void preloadKeyboardMappings() {
+        if (preloadExecutor.isShutdown()) {
+            return;
+        }
+
+        preloadExecutor.execute(() -> {
+            Set<String> requiredMappings = getEnabledKeyboardMappings();
+            Map<String, KeyboardMapping> loadedMappings = keyboardMappings;
+            Map<String, KeyboardMapping> result = new HashMap<>();
+
+            // Base variants are needed for external keyboards, their keys are mostly shared with device variants
+            for (String keyMappingFile : requiredMappings) {
+                for (boolean deviceVariant : new boolean[]{true, false}) {
+                    String registryKey = getRegistryKey(keyMappingFile, deviceVariant);
+                    if (result.containsKey(registryKey)) {
+                        continue;
+                    }
+
+                    KeyboardMapping mapping = loadedMappings.get(registryKey);
+                    if (mapping == null) {
+                        try {
+                            mapping = loadKeyboardMapping(keyMappingFile, deviceVariant);
+                        } catch (Exception e) {
+                            // Will be reported on attempt to switch to this mapping
+                            continue;
+                        }
+                    }
+                    result.put(registryKey, mapping);
+                }
+            }
+
+            publishKeyboardMappings(result, result.keySet());
+        });
+    }
+
+    /**
+     * Merges given mappings into the registry
+     *
+     * @param retainedMappings if set, drops registry entries which are not in this set
+     */
+    private synchronized void publishKeyboardMappings(Map<String, KeyboardMapping> mappings, Set<String> retainedMappings) {
+        Map<String, KeyboardMapping> registry = new HashMap<>(keyboardMappings);
+        if (retainedMappings != null) {
+            registry.keySet().retainAll(retainedMappings);
+        }
+        registry.putAll(mappings);
+        keyboardMappings = Collections.unmodifiableMap(registry);
+    }
+
+    private Set<String> getEnabledKeyboardMappings() {
+        Set<String> result = new HashSet<>();
+        result.add(NUMERIC_KEYBOARD_MAPPING);
+
+        InputMethodInfo inputMethodInfo = InputUtils.getInputMethodInfo(context, inputMethodManager);
+        if (inputMethodInfo != null) {
+            for (InputMethodSubtype subtype : inputMethodManager.getEnabledInputMethodSubtypeList(inputMethodInfo, true)) {
+                String keyMappingFile = subtype.getExtraValueOf(INPUT_METHOD_KEYBOARD_MAPPING);
+                if (!TextUtils.isEmpty(keyMappingFile)) {
+                    result.add(keyMappingFile);
+                }
+            }
+        }
+
+        return result;
     }
 
     private void toastError() {
@@ -70,9 +327,47 @@ public class KeyboardMappingManager {
         return "";
     }
 
-   @NonNull
-   private KeyboardMapping loadKeyboardMapping(String keyMappingFile) throws Exception {
-       KeyboardMappingParser parser = new KeyboardMappingParser(context, keyMappingFile, getDeviceModelString());
-       return parser.parseMapping();
-   }
+    @NonNull
+    private KeyboardMapping loadKeyboardMapping(String keyMappingFile, boolean deviceVariant) throws Exception {
+        if (CustomKeyboardMappingStore.CUSTOM_KEYBOARD_MAPPING.equals(keyMappingFile)) {
+            // Custom mapping is not device specific
+            return keyMappingPool.intern(customKeyboardMappingStore.loadMapping(customKeyboardMappingHash));
+        }
+
+        String mappingName = "keyboard_mapping_" + keyMappingFile;
+
+        // Device specific mapping is either a complete replacement or an overlay on top of the base one
+        KeyboardMapping deviceMapping = deviceVariant && !deviceModelString.isEmpty()
+                ? loadMappingFile(mappingName + deviceModelString) : null;
+        KeyboardMapping mapping;
+        if (deviceMapping != null && !deviceMapping.isOverlay()) {
+            mapping = deviceMapping;
+        } else {
+            mapping = loadMappingFile(mappingName);
+            if (mapping == null) {
+                throw new IllegalStateException("Keyboard mapping " + mappingName + " not found");
+            }
+            if (deviceMapping != null) {
+                mapping = mapping.withOverlay(deviceMapping);
+            }
+        }
+
+        return keyMappingPool.intern(mapping);
+    }
+
+    @Nullable
+    private KeyboardMapping loadMappingFile(String mappingName) throws Exception {
+        // Try precompiled mapping first, fallback to XML resource if it's missing or broken
+        String compiledMappingPath = KeyboardMappingSerializer.ASSETS_DIR + "/" + mappingName +
+                KeyboardMappingSerializer.FILE_EXTENSION;
+        try (InputStream inputStream = context.getAssets().open(compiledMappingPath)) {
+            return KeyboardMappingSerializer.read(inputStream);
+        } catch (IOException ignored) { }
+
+        int resourceId = context.getResources().getIdentifier(mappingName, "xml", context.getPackageName());
+        if (resourceId == 0) {
+            return null;
+        }
+        return new KeyboardMappingParser(context, resourceId).parseMapping();
+    }
 }
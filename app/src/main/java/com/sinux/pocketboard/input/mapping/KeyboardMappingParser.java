@@ -1,8 +1,10 @@
 package com.sinux.pocketboard.input.mapping;
 
 import android.content.Context;
+import android.view.KeyEvent;
 
 import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -12,60 +14,126 @@ import java.util.Map;
 public class KeyboardMappingParser {
 
     private static final String KEYBOARD_MAPPING_TAG = "KeyboardMapping";
+    private static final String SYMPAD_MAPPING_TAG = "SymPadMapping";
     private static final String KEY_TAG = "Key";
     private static final String ADD_TAG = "Add";
     private static final String ALT_TAG = "Alt";
+    private static final String COMPOSE_TAG = "Compose";
     private static final String CODE_ATTR = "code";
     private static final String VALUE_ATTR = "value";
     private static final String SHIFT_VALUE_ATTR = "shiftValue";
+    private static final String OVERLAY_ATTR = "overlay";
+    private static final String SEQUENCE_ATTR = "sequence";
+    private static final String KEY_CODE_ATTR = "keyCode";
+    private static final String LONG_PRESS_KEY_CODE_ATTR = "longPressKeyCode";
+    private static final String KEY_CODE_NAME_PREFIX = "KEYCODE_";
+
+    /**
+     * Limits of the compiled mapping format
+     */
+    private static final int MAX_KEY_COUNT = 0xFFFF;
+    private static final int MAX_VALUE_COUNT = 0xFF;
 
     private final XmlPullParser xpp;
 
-    public KeyboardMappingParser(Context context, String keyMappingFile, String modelName) {
-        this(context.getResources().getXml(
-                context.getResources()
-                        .getIdentifier("keyboard_mapping_" + keyMappingFile + modelName, "xml", context.getPackageName())
-        ));
+    private boolean symPadMapping;
+
+    public KeyboardMappingParser(Context context, int resourceId) {
+        this(context.getResources().getXml(resourceId));
     }
 
     public KeyboardMappingParser(XmlPullParser xpp) {
         this.xpp = xpp;
     }
 
+    /**
+     * Parses mapping and validates it against the rules of keyboard-mapping.xsd,
+     * so malformed user-supplied mappings are rejected on import instead of failing while typing.
+     * SymPad mapping is stored as a keyboard mapping whose values are key codes: translated key code
+     * is the only value and long press key code (if any) is the only alt value
+     */
     public KeyboardMapping parseMapping() throws Exception {
         Map<Integer, KeyMapping> keyMappings = new HashMap<>();
+        Map<String, Integer> composeSequences = new HashMap<>();
         List<KeyMappingValue> currentKeyValues = new ArrayList<>();
         List<KeyMappingValue> currentKeyAltValues = new ArrayList<>();
         int currentKeyCode = 0;
+        boolean overlay = false;
+        symPadMapping = false;
 
         while (xpp.getEventType() != XmlPullParser.END_DOCUMENT) {
             switch (xpp.getEventType()) {
                 case XmlPullParser.START_TAG:
-                    if (KEY_TAG.equals(xpp.getName())) {
-                        currentKeyCode = 0;
+                    if (KEYBOARD_MAPPING_TAG.equals(xpp.getName())) {
+                        checkDepth(1);
+                        for (int i = 0; i < xpp.getAttributeCount(); i++) {
+                            if (OVERLAY_ATTR.equals(xpp.getAttributeName(i))) {
+                                String value = xpp.getAttributeValue(i);
+                                if (!"true".equals(value) && !"false".equals(value) && !"1".equals(value) && !"0".equals(value)) {
+                                    throw error("Invalid " + OVERLAY_ATTR + " value " + value);
+                                }
+                                overlay = "true".equals(value) || "1".equals(value);
+                            } else {
+                                throw error("Unknown attribute " + xpp.getAttributeName(i));
+                            }
+                        }
+                    } else if (SYMPAD_MAPPING_TAG.equals(xpp.getName())) {
+                        checkDepth(1);
+                        if (xpp.getAttributeCount() > 0) {
+                            throw error("Unknown attribute " + xpp.getAttributeName(0));
+                        }
+                        symPadMapping = true;
+                    } else if (KEY_TAG.equals(xpp.getName())) {
+                        checkDepth(2);
+                        currentKeyCode = -1;
                         currentKeyValues.clear();
                         currentKeyAltValues.clear();
                         for (int i = 0; i < xpp.getAttributeCount(); i++) {
                             if (CODE_ATTR.equals(xpp.getAttributeName(i))) {
-                                currentKeyCode = Integer.parseInt(xpp.getAttributeValue(i));
+                                currentKeyCode = parseKeyCode(xpp.getAttributeValue(i));
                             }
                         }
-                        parseAndPutValue(xpp, currentKeyValues);
+                        if (currentKeyCode < 0) {
+                            throw error("Key code is missing");
+                        }
+                        if (keyMappings.containsKey(currentKeyCode)) {
+                            throw error("Duplicate key code " + currentKeyCode);
+                        }
+                        if (symPadMapping) {
+                            parseAndPutKeyCodes(currentKeyValues, currentKeyAltValues);
+                        } else {
+                            parseAndPutValue(currentKeyValues, CODE_ATTR);
+                        }
+                    } else if (symPadMapping) {
+                        throw error("Unknown element " + xpp.getName());
                     } else if (ADD_TAG.equals(xpp.getName())) {
-                        parseAndPutValue(xpp, currentKeyValues);
+                        checkDepth(3);
+                        parseAndPutValue(currentKeyValues, null);
                     } else if (ALT_TAG.equals(xpp.getName())) {
-                        parseAndPutValue(xpp, currentKeyAltValues);
+                        checkDepth(3);
+                        parseAndPutValue(currentKeyAltValues, null);
+                    } else if (COMPOSE_TAG.equals(xpp.getName())) {
+                        checkDepth(2);
+                        parseAndPutComposeSequence(composeSequences);
+                    } else {
+                        throw error("Unknown element " + xpp.getName());
                     }
                     break;
 
                 case XmlPullParser.END_TAG:
-                    if (KEYBOARD_MAPPING_TAG.equals(xpp.getName())) {
-                        return new KeyboardMapping(keyMappings);
+                    if (KEYBOARD_MAPPING_TAG.equals(xpp.getName()) || SYMPAD_MAPPING_TAG.equals(xpp.getName())) {
+                        if (keyMappings.isEmpty() || keyMappings.size() > MAX_KEY_COUNT) {
+                            throw error("Mapping must have from 1 to " + MAX_KEY_COUNT + " keys");
+                        }
+                        return new KeyboardMapping(keyMappings, new ComposeTable(composeSequences), overlay);
                     } else if (KEY_TAG.equals(xpp.getName())) {
+                        if (currentKeyValues.size() > MAX_VALUE_COUNT || currentKeyAltValues.size() > MAX_VALUE_COUNT) {
+                            throw error("Key must have at most " + MAX_VALUE_COUNT + " values");
+                        }
                         keyMappings.put(currentKeyCode,
                                 new KeyMapping(
-                                        currentKeyValues.toArray(currentKeyValues.toArray(new KeyMappingValue[0])),
-                                        currentKeyAltValues.toArray(currentKeyAltValues.toArray(currentKeyAltValues.toArray(new KeyMappingValue[0])))
+                                        currentKeyValues.toArray(new KeyMappingValue[0]),
+                                        currentKeyAltValues.toArray(new KeyMappingValue[0])
                                 ));
                     }
                     break;
@@ -79,16 +147,102 @@ public class KeyboardMappingParser {
         throw new IllegalStateException("An error occurred during KeyboardMapping parsing");
     }
 
-    private static void parseAndPutValue(XmlPullParser xpp, List<KeyMappingValue> target) {
+    /**
+     * @return whether the parsed mapping is a SymPad mapping
+     */
+    public boolean isSymPadMapping() {
+        return symPadMapping;
+    }
+
+    private void checkDepth(int expectedDepth) throws XmlPullParserException {
+        if (xpp.getDepth() != expectedDepth) {
+            throw error("Unexpected element " + xpp.getName());
+        }
+    }
+
+    /**
+     * Key code is either a number or a name of {@link KeyEvent} constant, e.g. KEYCODE_MOVE_HOME
+     */
+    private int parseKeyCode(String value) throws XmlPullParserException {
+        try {
+            int keyCode = value.startsWith(KEY_CODE_NAME_PREFIX) ?
+                    KeyEvent.class.getField(value).getInt(null) : Integer.parseInt(value);
+            if (keyCode >= 0) {
+                return keyCode;
+            }
+        } catch (IllegalArgumentException | ReflectiveOperationException ignored) { }
+        throw error("Invalid key code " + value);
+    }
+
+    private void parseAndPutValue(List<KeyMappingValue> target, String extraAttribute) throws XmlPullParserException {
         int value = 0;
         int shiftValue = 0;
         for (int i = 0; i < xpp.getAttributeCount(); i++) {
             if (VALUE_ATTR.equals(xpp.getAttributeName(i))) {
-                value = xpp.getAttributeValue(i).codePointAt(0);
+                value = parseCharacter(xpp.getAttributeValue(i));
             } else if (SHIFT_VALUE_ATTR.equals(xpp.getAttributeName(i))) {
-                shiftValue = xpp.getAttributeValue(i).codePointAt(0);
+                shiftValue = parseCharacter(xpp.getAttributeValue(i));
+            } else if (!xpp.getAttributeName(i).equals(extraAttribute)) {
+                throw error("Unknown attribute " + xpp.getAttributeName(i));
             }
         }
+        if (value == 0) {
+            throw error("Value is missing");
+        }
         target.add(new KeyMappingValue(value, shiftValue));
     }
+
+    private void parseAndPutKeyCodes(List<KeyMappingValue> values, List<KeyMappingValue> altValues) throws XmlPullParserException {
+        int keyCode = 0;
+        int longPressKeyCode = 0;
+        for (int i = 0; i < xpp.getAttributeCount(); i++) {
+            if (KEY_CODE_ATTR.equals(xpp.getAttributeName(i))) {
+                keyCode = parseKeyCode(xpp.getAttributeValue(i));
+            } else if (LONG_PRESS_KEY_CODE_ATTR.equals(xpp.getAttributeName(i))) {
+                longPressKeyCode = parseKeyCode(xpp.getAttributeValue(i));
+            } else if (!CODE_ATTR.equals(xpp.getAttributeName(i))) {
+                throw error("Unknown attribute " + xpp.getAttributeName(i));
+            }
+        }
+        if (keyCode == 0) {
+            throw error("Translated key code is missing");
+        }
+        values.add(new KeyMappingValue(keyCode, 0));
+        if (longPressKeyCode != 0) {
+            altValues.add(new KeyMappingValue(longPressKeyCode, 0));
+        }
+    }
+
+    private void parseAndPutComposeSequence(Map<String, Integer> target) throws XmlPullParserException {
+        String sequence = null;
+        int value = 0;
+        for (int i = 0; i < xpp.getAttributeCount(); i++) {
+            if (SEQUENCE_ATTR.equals(xpp.getAttributeName(i))) {
+                sequence = xpp.getAttributeValue(i);
+            } else if (VALUE_ATTR.equals(xpp.getAttributeName(i))) {
+                value = parseCharacter(xpp.getAttributeValue(i));
+            } else {
+                throw error("Unknown attribute " + xpp.getAttributeName(i));
+            }
+        }
+        if (sequence == null || sequence.codePointCount(0, sequence.length()) < 2) {
+            throw error("Compose sequence must have at least two characters");
+        }
+        if (value == 0) {
+            throw error("Value is missing");
+        }
+        target.put(sequence, value);
+    }
+
+    private int parseCharacter(String value) throws XmlPullParserException {
+        // Same as "char" type of the schema: a single character, possibly escaped or encoded as surrogate pair
+        if (value.isEmpty() || value.length() > 2) {
+            throw error("Invalid character value " + value);
+        }
+        return value.codePointAt(0);
+    }
+
+    private XmlPullParserException error(String message) {
+        return new XmlPullParserException(message, xpp, null);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,115 @@
+package com.sinux.pocketboard.input.mapping;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary form of {@link KeyboardMapping} which can be loaded without XML parsing.
+ * Mapping blobs are produced at build time by the compileKeyboardMappings Gradle task,
+ * so the format must be kept in sync with app/build.gradle
+ * <pre>
+ * int   magic ("PBKM")
+ * byte  format version
+ * byte  flags (bit 0: overlay)
+ * short key count
+ * key:  int code, byte values count, (int value, int shiftValue)*, byte alt values count, (int value, int shiftValue)*
+ * short compose sequences count
+ * compose sequence: modified UTF-8 sequence, int value
+ * </pre>
+ */
+public final class KeyboardMappingSerializer {
+
+    public static final String ASSETS_DIR = "keyboard_mappings";
+    public static final String FILE_EXTENSION = ".bin";
+
+    static final int MAGIC = 0x50424B4D;
+    static final int FORMAT_VERSION = 3;
+    static final int FLAG_OVERLAY = 1;
+
+    private KeyboardMappingSerializer() {
+    }
+
+    public static void write(KeyboardMapping keyboardMapping, OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        int[] keyCodes = keyboardMapping.getKeyCodes();
+
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeByte(keyboardMapping.isOverlay() ? FLAG_OVERLAY : 0);
+        out.writeShort(keyCodes.length);
+
+        for (int keyCode : keyCodes) {
+            KeyMapping keyMapping = keyboardMapping.getKeyMapping(keyCode);
+            out.writeInt(keyCode);
+            writeValues(out, keyMapping.getKeyMappingValues());
+            writeValues(out, keyMapping.getKeyMappingAltValues());
+        }
+
+        Map<String, Integer> composeSequences = keyboardMapping.getComposeTable().getSequences();
+        out.writeShort(composeSequences.size());
+        for (Map.Entry<String, Integer> entry : composeSequences.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+
+        out.flush();
+    }
+
+    public static KeyboardMapping read(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a keyboard mapping");
+        }
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported keyboard mapping format version " + version);
+        }
+
+        int flags = in.readUnsignedByte();
+        int keyCount = in.readUnsignedShort();
+        Map<Integer, KeyMapping> keyMappings = new HashMap<>(keyCount * 2);
+        for (int i = 0; i < keyCount; i++) {
+            int keyCode = in.readInt();
+            KeyMappingValue[] values = readValues(in);
+            KeyMappingValue[] altValues = readValues(in);
+            keyMappings.put(keyCode, new KeyMapping(values, altValues));
+        }
+
+        int composeSequenceCount = in.readUnsignedShort();
+        Map<String, Integer> composeSequences = new HashMap<>(composeSequenceCount * 2);
+        for (int i = 0; i < composeSequenceCount; i++) {
+            String sequence = in.readUTF();
+            composeSequences.put(sequence, in.readInt());
+        }
+
+        return new KeyboardMapping(keyMappings, new ComposeTable(composeSequences), (flags & FLAG_OVERLAY) != 0);
+    }
+
+    private static void writeValues(DataOutputStream out, KeyMappingValue[] values) throws IOException {
+        int count = values != null ? values.length : 0;
+        out.writeByte(count);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(values[i].getValue());
+            out.writeInt(values[i].getShiftValue());
+        }
+    }
+
+    private static KeyMappingValue[] readValues(DataInputStream in) throws IOException {
+        int count = in.readUnsignedByte();
+        KeyMappingValue[] values = new KeyMappingValue[count];
+        for (int i = 0; i < count; i++) {
+            int value = in.readInt();
+            int shiftValue = in.readInt();
+            values[i] = new KeyMappingValue(value, shiftValue);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,55 @@
+package com.sinux.pocketboard.input.mapping;
+
+/**
+ * SymPad key translation tables indexed by the original key code, so each translation is a single array read.
+ * Translated key code is 0 for keys which are not handled by SymPad
+ */
+public final class SymPadMapping {
+
+    static final SymPadMapping EMPTY = new SymPadMapping(new int[0], new int[0]);
+
+    /**
+     * Limits size of translation tables, Android key codes are far below it
+     */
+    private static final int MAX_KEY_CODE = 1023;
+
+    private final int[] shortPressKeyCodes;
+    private final int[] longPressKeyCodes;
+
+    private SymPadMapping(int[] shortPressKeyCodes, int[] longPressKeyCodes) {
+        this.shortPressKeyCodes = shortPressKeyCodes;
+        this.longPressKeyCodes = longPressKeyCodes;
+    }
+
+    /**
+     * @param keyboardMapping mapping parsed from SymPadMapping XML, see {@link KeyboardMappingParser}
+     */
+    public static SymPadMapping fromKeyboardMapping(KeyboardMapping keyboardMapping) {
+        int[] keyCodes = keyboardMapping.getKeyCodes();
+        int maxKeyCode = -1;
+        for (int keyCode : keyCodes) {
+            maxKeyCode = Math.max(maxKeyCode, keyCode);
+        }
+        if (maxKeyCode > MAX_KEY_CODE) {
+            throw new IllegalArgumentException("SymPad key code " + maxKeyCode + " is out of range");
+        }
+
+        int[] shortPressKeyCodes = new int[maxKeyCode + 1];
+        int[] longPressKeyCodes = new int[maxKeyCode + 1];
+        for (int keyCode : keyCodes) {
+            KeyMapping keyMapping = keyboardMapping.getKeyMapping(keyCode);
+            shortPressKeyCodes[keyCode] = keyMapping.getKeyMappingValues()[0].getValue();
+            KeyMappingValue[] altValues = keyMapping.getKeyMappingAltValues();
+            longPressKeyCodes[keyCode] = altValues.length > 0 ? altValues[0].getValue() : 0;
+        }
+        return new SymPadMapping(shortPressKeyCodes, longPressKeyCodes);
+    }
+
+    public int getShortPressKeyCode(int keyCode) {
+        return keyCode >= 0 && keyCode < shortPressKeyCodes.length ? shortPressKeyCodes[keyCode] : 0;
+    }
+
+    public int getLongPressKeyCode(int keyCode) {
+        return keyCode >= 0 && keyCode < longPressKeyCodes.length ? longPressKeyCodes[keyCode] : 0;
+    }
+}
@@ -0,0 +1,136 @@
+package com.sinux.pocketboard.input.text;
+
+import java.util.Locale;
+
+/**
+ * Local replacement of {@code InputConnection.getCursorCapsMode}, follows the rules of {@code TextUtils.getCapsMode}
+ * with locale specific sentence terminators and opening punctuation (e.g. Spanish "¿" and "¡")
+ */
+public final class CapsModeResolver {
+
+    /**
+     * Same values as {@code TextUtils.CAP_MODE_*} and {@code InputType.TYPE_TEXT_FLAG_CAP_*}
+     */
+    public static final int CAP_MODE_CHARACTERS = 0x1000;
+    public static final int CAP_MODE_WORDS = 0x2000;
+    public static final int CAP_MODE_SENTENCES = 0x4000;
+
+    /**
+     * Length of text before the cursor which is enough to resolve caps mode
+     */
+    public static final int LOOKUP_LENGTH = 64;
+
+    private static final String DEFAULT_SENTENCE_TERMINATORS = ".?!…";
+    private static final String DEFAULT_OPENING_PUNCTUATION = "";
+
+    private final String sentenceTerminators;
+    private final String openingPunctuation;
+
+    private CapsModeResolver(String sentenceTerminators, String openingPunctuation) {
+        this.sentenceTerminators = sentenceTerminators;
+        this.openingPunctuation = openingPunctuation;
+    }
+
+    public static CapsModeResolver forLocale(Locale locale) {
+        return switch (locale.getLanguage()) {
+            // Inverted marks open a sentence
+            case "es" -> new CapsModeResolver(DEFAULT_SENTENCE_TERMINATORS, "¿¡");
+            // Greek question mark looks like a semicolon
+            case "el" -> new CapsModeResolver(DEFAULT_SENTENCE_TERMINATORS + "\u037E", DEFAULT_OPENING_PUNCTUATION);
+            // Armenian full stop
+            case "hy" -> new CapsModeResolver(DEFAULT_SENTENCE_TERMINATORS + "\u0589", DEFAULT_OPENING_PUNCTUATION);
+            default -> new CapsModeResolver(DEFAULT_SENTENCE_TERMINATORS, DEFAULT_OPENING_PUNCTUATION);
+        };
+    }
+
+    /**
+     * @param inputType {@code EditorInfo.inputType} of the editor
+     * @return caps modes to check: sentences mode plus the modes requested by the editor
+     */
+    public static int getRequestedCapsModes(int inputType) {
+        return CAP_MODE_SENTENCES | (inputType & (CAP_MODE_CHARACTERS | CAP_MODE_WORDS));
+    }
+
+    /**
+     * @param textBeforeCursor text in front of the cursor
+     * @param reachesStart     whether the text starts at the beginning of the document
+     * @param reqModes         requested combination of CAP_MODE_* flags
+     * @return requested caps modes which are in effect at the cursor
+     */
+    public int getCapsMode(CharSequence textBeforeCursor, boolean reachesStart, int reqModes) {
+        int mode = reqModes & CAP_MODE_CHARACTERS;
+        if ((reqModes & (CAP_MODE_WORDS | CAP_MODE_SENTENCES)) == 0) {
+            return mode;
+        }
+
+        // Skip opening quotes and brackets in front of the cursor
+        int i = textBeforeCursor.length();
+        while (i > 0 && isOpeningPunctuation(textBeforeCursor.charAt(i - 1))) {
+            i--;
+        }
+
+        int j = i;
+        while (j > 0 && isSpace(textBeforeCursor.charAt(j - 1))) {
+            j--;
+        }
+
+        if (j == 0) {
+            // Text is too short to say anything, unless it's the beginning of the document
+            return reachesStart ? mode | (reqModes & (CAP_MODE_WORDS | CAP_MODE_SENTENCES)) : mode;
+        }
+        if (textBeforeCursor.charAt(j - 1) == '\n') {
+            return mode | (reqModes & (CAP_MODE_WORDS | CAP_MODE_SENTENCES));
+        }
+        if (i == j) {
+            // Cursor is inside a word
+            return mode;
+        }
+        mode |= reqModes & CAP_MODE_WORDS;
+
+        if ((reqModes & CAP_MODE_SENTENCES) == 0) {
+            return mode;
+        }
+
+        // Skip closing quotes and brackets after the end of sentence
+        while (j > 0 && isClosingPunctuation(textBeforeCursor.charAt(j - 1))) {
+            j--;
+        }
+        if (j == 0) {
+            return mode;
+        }
+
+        char c = textBeforeCursor.charAt(j - 1);
+        if (sentenceTerminators.indexOf(c) < 0) {
+            return mode;
+        }
+        if (c == '.') {
+            // Abbreviation with dots inside, e.g. "e.g."
+            for (int k = j - 2; k >= 0; k--) {
+                char previous = textBeforeCursor.charAt(k);
+                if (previous == '.') {
+                    return mode;
+                }
+                if (!Character.isLetter(previous)) {
+                    break;
+                }
+            }
+        }
+        return mode | CAP_MODE_SENTENCES;
+    }
+
+    private boolean isOpeningPunctuation(char c) {
+        return c == '"' || c == '\'' || openingPunctuation.indexOf(c) >= 0 ||
+                Character.getType(c) == Character.START_PUNCTUATION ||
+                Character.getType(c) == Character.INITIAL_QUOTE_PUNCTUATION;
+    }
+
+    private static boolean isClosingPunctuation(char c) {
+        return c == '"' || c == '\'' ||
+                Character.getType(c) == Character.END_PUNCTUATION ||
+                Character.getType(c) == Character.FINAL_QUOTE_PUNCTUATION;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\u00A0';
+    }
+}
@@ -0,0 +1,37 @@
+package com.sinux.pocketboard.input.text;
+
+/**
+ * Cheap check which rejects tokens that can't be dictionary words (numbers, hashes, identifiers),
+ * so the spellchecker isn't queried for them
+ */
+public final class LexicalTokenFilter {
+
+    /**
+     * Short tokens mixing letters and digits are still looked up: "mp3", "2nd", "4x4"
+     */
+    private static final int MAX_MIXED_TOKEN_LENGTH = 6;
+
+    private LexicalTokenFilter() {
+    }
+
+    public static boolean isLexical(CharSequence token) {
+        int length = token.length();
+        boolean hasLetter = false;
+        boolean hasDigit = false;
+
+        for (int i = 0; i < length; ) {
+            int codePoint = Character.codePointAt(token, i);
+            if (Character.isLetter(codePoint)) {
+                hasLetter = true;
+            } else if (Character.isDigit(codePoint)) {
+                hasDigit = true;
+            }
+            i += Character.charCount(codePoint);
+        }
+
+        if (!hasLetter) {
+            return false;
+        }
+        return !hasDigit || length <= MAX_MIXED_TOKEN_LENGTH;
+    }
+}
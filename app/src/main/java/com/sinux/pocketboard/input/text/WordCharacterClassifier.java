@@ -0,0 +1,139 @@
+package com.sinux.pocketboard.input.text;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decides whether a character belongs to a word: letters, digits and locale specific exclusions
+ * (e.g. hyphen in "кто-то" or apostrophe in "don't"). Classes are precompiled into a bitset for the BMP
+ * and a sorted range table for supplementary planes, so each lookup is a single array access or a short binary search
+ */
+public final class WordCharacterClassifier {
+
+    private static final int BMP_SIZE = Character.MIN_SUPPLEMENTARY_CODE_POINT;
+
+    private static final String DEFAULT_EXCLUSIONS = "-";
+
+    private static final Map<String, WordCharacterClassifier> classifiers = new HashMap<>();
+
+    private static long[] letterOrDigitBmpBits;
+    private static int[] letterOrDigitSupplementaryRanges;
+
+    private final long[] bmpBits;
+    /**
+     * Sorted pairs of inclusive range bounds: start0, end0, start1, end1...
+     */
+    private final int[] supplementaryRanges;
+
+    private WordCharacterClassifier(long[] bmpBits, int[] supplementaryRanges) {
+        this.bmpBits = bmpBits;
+        this.supplementaryRanges = supplementaryRanges;
+    }
+
+    /**
+     * @return shared classifier for the language of given locale
+     */
+    public static synchronized WordCharacterClassifier forLocale(Locale locale) {
+        String exclusions = switch (locale.getLanguage()) {
+            // Contractions and possessives: "don't", "O’Neil"
+            case "en" -> DEFAULT_EXCLUSIONS + "'\u2019";
+            // Apostrophe is a letter of the alphabet
+            case "uk", "be" -> DEFAULT_EXCLUSIONS + "'\u2019\u02BC";
+            default -> DEFAULT_EXCLUSIONS;
+        };
+        WordCharacterClassifier classifier = classifiers.get(exclusions);
+        if (classifier == null) {
+            classifier = withExclusions(exclusions);
+            classifiers.put(exclusions, classifier);
+        }
+        return classifier;
+    }
+
+    /**
+     * @param exclusions non-letter and non-digit characters which are part of a word
+     */
+    public static synchronized WordCharacterClassifier withExclusions(String exclusions) {
+        if (letterOrDigitBmpBits == null) {
+            compileLettersAndDigits();
+        }
+
+        long[] bmpBits = letterOrDigitBmpBits.clone();
+        int[] supplementaryRanges = letterOrDigitSupplementaryRanges;
+        for (int i = 0; i < exclusions.length(); i += Character.charCount(exclusions.codePointAt(i))) {
+            int codePoint = exclusions.codePointAt(i);
+            if (codePoint < BMP_SIZE) {
+                bmpBits[codePoint >>> 6] |= 1L << codePoint;
+            } else if (!isInRanges(supplementaryRanges, codePoint)) {
+                supplementaryRanges = addRange(supplementaryRanges, codePoint);
+            }
+        }
+        return new WordCharacterClassifier(bmpBits, supplementaryRanges);
+    }
+
+    public boolean isWordCharacter(int codePoint) {
+        if (codePoint >= 0 && codePoint < BMP_SIZE) {
+            return (bmpBits[codePoint >>> 6] & (1L << codePoint)) != 0;
+        }
+        return isInRanges(supplementaryRanges, codePoint);
+    }
+
+    private static void compileLettersAndDigits() {
+        long[] bmpBits = new long[BMP_SIZE / Long.SIZE];
+        for (int codePoint = 0; codePoint < BMP_SIZE; codePoint++) {
+            if (Character.isLetterOrDigit(codePoint)) {
+                bmpBits[codePoint >>> 6] |= 1L << codePoint;
+            }
+        }
+
+        int[] ranges = new int[64];
+        int count = 0;
+        int rangeStart = -1;
+        for (int codePoint = BMP_SIZE; codePoint <= Character.MAX_CODE_POINT + 1; codePoint++) {
+            boolean letterOrDigit = codePoint <= Character.MAX_CODE_POINT && Character.isLetterOrDigit(codePoint);
+            if (letterOrDigit && rangeStart < 0) {
+                rangeStart = codePoint;
+            } else if (!letterOrDigit && rangeStart >= 0) {
+                if (count + 2 > ranges.length) {
+                    ranges = Arrays.copyOf(ranges, ranges.length * 2);
+                }
+                ranges[count++] = rangeStart;
+                ranges[count++] = codePoint - 1;
+                rangeStart = -1;
+            }
+        }
+
+        letterOrDigitBmpBits = bmpBits;
+        letterOrDigitSupplementaryRanges = Arrays.copyOf(ranges, count);
+    }
+
+    private static boolean isInRanges(int[] ranges, int codePoint) {
+        int low = 0;
+        int high = ranges.length / 2 - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (codePoint < ranges[middle * 2]) {
+                high = middle - 1;
+            } else if (codePoint > ranges[middle * 2 + 1]) {
+                low = middle + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] addRange(int[] ranges, int codePoint) {
+        int index = 0;
+        while (index < ranges.length && ranges[index] < codePoint) {
+            index += 2;
+        }
+        int[] result = new int[ranges.length + 2];
+        System.arraycopy(ranges, 0, result, 0, index);
+        result[index] = codePoint;
+        result[index + 1] = codePoint;
+        System.arraycopy(ranges, index, result, index + 2, ranges.length - index);
+        return result;
+    }
+}
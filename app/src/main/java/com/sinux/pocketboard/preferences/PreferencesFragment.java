@@ -1,13 +1,19 @@
 package com.sinux.pocketboard.preferences;
 
 import android.Manifest;
+import android.app.AlertDialog;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.inputmethod.InputMethodInfo;
 import android.view.inputmethod.InputMethodManager;
 import android.view.inputmethod.InputMethodSubtype;
+import android.widget.Toast;
 
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.preference.Preference;
@@ -15,15 +21,30 @@ import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.SwitchPreference;
 
 import com.sinux.pocketboard.R;
+import com.sinux.pocketboard.input.connection.IpcAccounting;
+import com.sinux.pocketboard.input.editor.EditorProfileManager;
+import com.sinux.pocketboard.input.mapping.CustomKeyboardMappingStore;
 import com.sinux.pocketboard.utils.InputUtils;
 
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class PreferencesFragment extends PreferenceFragmentCompat {
 
+    private static final String[] KEYBOARD_MAPPING_MIME_TYPES = {"text/xml", "application/xml", "text/plain"};
+
     private Preference subtypesPreference;
     private InputMethodManager inputMethodManager;
     private InputMethodInfo inputMethodInfo;
     private Context context;
 
+    /**
+     * Imports read, hash and compile mapping files, so they don't block the UI
+     */
+    private final ExecutorService importExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
     @Override
     public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
         getPreferenceManager().setStorageDeviceProtected();
@@ -34,9 +55,17 @@ public class PreferencesFragment extends PreferenceFragmentCompat {
         inputMethodInfo = InputUtils.getInputMethodInfo(context, inputMethodManager);
 
         subtypesPreference = initInputSubtypesPref(context, inputMethodInfo);
+        initCustomMappingPref(context, R.string.ime_custom_keyboard_mapping_import_prefs_key,
+                R.string.ime_custom_keyboard_mapping_prefs_key, CustomKeyboardMappingStore.CUSTOM_KEYBOARD_MAPPING,
+                R.string.ime_custom_keyboard_mapping_summary);
+        initCustomMappingPref(context, R.string.ime_custom_sympad_mapping_import_prefs_key,
+                R.string.ime_custom_sympad_mapping_prefs_key, CustomKeyboardMappingStore.CUSTOM_SYMPAD_MAPPING,
+                R.string.ime_custom_sympad_mapping_summary);
         initToastNotificationPref(context);
         initPhoneControlPref(context);
         initShowPanelPref();
+        initIpcReportPref(context);
+        initForgetRawInputEditorsPref(context);
 
         updateInputSubtypesPrefSummary();
     }
@@ -54,6 +83,65 @@ public class PreferencesFragment extends PreferenceFragmentCompat {
         return pref;
     }
 
+    /**
+     * @param mappingName {@link CustomKeyboardMappingStore#CUSTOM_KEYBOARD_MAPPING} or {@link CustomKeyboardMappingStore#CUSTOM_SYMPAD_MAPPING}
+     */
+    private void initCustomMappingPref(Context context, int importPrefKeyId, int hashPrefKeyId, String mappingName, int summaryId) {
+        Preference pref = findPreference(getString(importPrefKeyId));
+
+        var openDocumentLauncher = registerForActivityResult(new ActivityResultContracts.OpenDocument(), uri -> {
+            if (uri != null) {
+                importCustomMapping(context, uri, pref, hashPrefKeyId, mappingName, summaryId);
+            }
+        });
+
+        if (pref != null) {
+            pref.setOnPreferenceClickListener(preference -> {
+                openDocumentLauncher.launch(KEYBOARD_MAPPING_MIME_TYPES);
+                return true;
+            });
+            updateCustomMappingPrefSummary(pref, hashPrefKeyId, summaryId);
+        }
+    }
+
+    private void importCustomMapping(Context context, Uri uri, Preference pref, int hashPrefKeyId, String mappingName, int summaryId) {
+        Context appContext = context.getApplicationContext();
+        SharedPreferences sharedPreferences = getPreferenceManager().getSharedPreferences();
+        String hashPrefKey = getString(hashPrefKeyId);
+
+        // Validate and compile here, so malformed mapping is reported right away instead of failing while typing
+        importExecutor.execute(() -> {
+            String hash;
+            try (InputStream inputStream = appContext.getContentResolver().openInputStream(uri)) {
+                hash = new CustomKeyboardMappingStore(appContext, mappingName).importMapping(inputStream);
+            } catch (Exception e) {
+                mainHandler.post(() -> Toast.makeText(appContext,
+                        appContext.getString(R.string.ime_custom_keyboard_mapping_import_failed, e.getMessage()),
+                        Toast.LENGTH_LONG).show());
+                return;
+            }
+
+            // Stored even if the settings have been closed meanwhile
+            sharedPreferences.edit()
+                    .putString(hashPrefKey, hash)
+                    .apply();
+            mainHandler.post(() -> {
+                if (pref != null && isAdded()) {
+                    updateCustomMappingPrefSummary(pref, hashPrefKeyId, summaryId);
+                }
+            });
+        });
+    }
+
+    private void updateCustomMappingPrefSummary(Preference pref, int hashPrefKeyId, int summaryId) {
+        String hash = getPreferenceManager().getSharedPreferences().getString(getString(hashPrefKeyId), "");
+        if (hash.isEmpty()) {
+            pref.setSummary(summaryId);
+        } else {
+            pref.setSummary(getString(R.string.ime_custom_keyboard_mapping_imported, hash.substring(0, 8)));
+        }
+    }
+
     private void initToastNotificationPref(Context context) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
             SwitchPreference pref = findPreference(getString(R.string.ime_show_layout_toast_prefs_key));
@@ -148,6 +236,44 @@ public class PreferencesFragment extends PreferenceFragmentCompat {
         }
     }
 
+    private void initIpcReportPref(Context context) {
+        Preference pref = findPreference(getString(R.string.ime_extra_ipc_report_prefs_key));
+
+        if (pref != null) {
+            pref.setOnPreferenceClickListener(preference -> {
+                // Settings run in the input method process, so the report is read directly
+                IpcAccounting ipcAccounting = IpcAccounting.getInstance();
+                String report = ipcAccounting.dump();
+                new AlertDialog.Builder(context)
+                        .setTitle(R.string.ime_extra_ipc_report)
+                        .setMessage(report.isEmpty() ? getString(R.string.ime_extra_ipc_report_empty) : report)
+                        .setPositiveButton(android.R.string.ok, null)
+                        .setNeutralButton(R.string.ime_extra_ipc_report_reset, (dialog, which) -> ipcAccounting.reset())
+                        .show();
+                return true;
+            });
+        }
+    }
+
+    private void initForgetRawInputEditorsPref(Context context) {
+        Preference pref = findPreference(getString(R.string.ime_extra_forget_raw_input_editors_prefs_key));
+
+        if (pref != null) {
+            pref.setOnPreferenceClickListener(preference -> {
+                EditorProfileManager.forgetLearnedEditors(context);
+                Toast.makeText(context, R.string.ime_extra_forget_raw_input_editors_done, Toast.LENGTH_SHORT).show();
+                return true;
+            });
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        // Started imports still finish and store their result
+        importExecutor.shutdown();
+        super.onDestroy();
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -42,7 +42,10 @@ public class PreferencesHolder implements SharedPreferences.OnSharedPreferenceCh
     private final String showMetaLayoutKey;
     private final String showVoiceKey;
     private final String phoneControlKey;
+    private final String ipcAccountingKey;
     private final String recentEmojiKey;
+    private final String customKeyboardMappingKey;
+    private final String customSymPadMappingKey;
 
     private final Map<String, Object> prefValues;
     private final Map<String, Set<Consumer<Object>>> prefsChangeListeners = new HashMap<>();
@@ -72,7 +75,10 @@ public class PreferencesHolder implements SharedPreferences.OnSharedPreferenceCh
         showMetaLayoutKey = context.getString(R.string.ime_show_meta_layout_prefs_key);
         showVoiceKey = context.getString(R.string.ime_show_voice_prefs_key);
         phoneControlKey = context.getString(R.string.ime_extra_phone_control_prefs_key);
+        ipcAccountingKey = context.getString(R.string.ime_extra_ipc_accounting_prefs_key);
         recentEmojiKey = context.getString(R.string.ime_recent_emoji_prefs_key);
+        customKeyboardMappingKey = context.getString(R.string.ime_custom_keyboard_mapping_prefs_key);
+        customSymPadMappingKey = context.getString(R.string.ime_custom_sympad_mapping_prefs_key);
 
         prefValues = new HashMap<>();
     }
@@ -174,6 +180,10 @@ public class PreferencesHolder implements SharedPreferences.OnSharedPreferenceCh
         return (boolean) prefValues.computeIfAbsent(phoneControlKey, key -> getValue(key, Boolean.class, false));
     }
 
+    public boolean isIpcAccountingEnabled() {
+        return (boolean) prefValues.computeIfAbsent(ipcAccountingKey, key -> getValue(key, Boolean.class, false));
+    }
+
     public long getLongKeyPressDuration() {
         return deviceProtectedStorageContext.getResources().getInteger(R.integer.key_long_press_duration);
     }
@@ -188,6 +198,22 @@ public class PreferencesHolder implements SharedPreferences.OnSharedPreferenceCh
         editor.apply();
     }
 
+    public String getCustomKeyboardMappingKey() {
+        return customKeyboardMappingKey;
+    }
+
+    public String getCustomKeyboardMappingHash() {
+        return getValue(customKeyboardMappingKey, String.class, "");
+    }
+
+    public String getCustomSymPadMappingKey() {
+        return customSymPadMappingKey;
+    }
+
+    public String getCustomSymPadMappingHash() {
+        return getValue(customSymPadMappingKey, String.class, "");
+    }
+
     @SuppressWarnings({"unchecked", "SameParameterValue"})
     private <T> T getValue(String key, Class<T> type, T defaultValue) {
         Object value;
@@ -2,6 +2,8 @@ package com.sinux.pocketboard.utils;
 
 import android.text.TextUtils;
 
+import com.sinux.pocketboard.input.text.WordCharacterClassifier;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -16,7 +18,7 @@ public class CharacterUtils {
     public static final int ZWJ = 0x200D;
     public static final List<Integer> EMOJI_FITZPATRICK_MODIFIERS = Arrays.asList(0x1F3FB, 0x1F3FC, 0x1F3FD, 0x1F3FE, 0x1F3FF);
     public static final List<Integer> EMOJI_VARIANT_SELECTORS = Arrays.asList(0xFE0E, 0xFE0F);
-    private static final List<Integer> SUBDIVISION_FLAG_PARTS = Arrays.asList(0xE0062, 0xE0063, 0xE0065, 0xE0067, 0xE006C, 0xE006E, 0xE0073, 0xE0074, 0xE0077, 0xE007F);
+    private static final int[] SUBDIVISION_FLAG_PARTS = {0xE0062, 0xE0063, 0xE0065, 0xE0067, 0xE006C, 0xE006E, 0xE0073, 0xE0074, 0xE0077, 0xE007F};
     private static final int HANDS_EMOJI = 0x1F91D;
 
     /**
@@ -47,9 +49,10 @@ public class CharacterUtils {
     }
 
     public static boolean isEmojiModifier(int codePoint) {
+        // Primitive comparisons instead of list lookups, so checks on the keystroke path don't box code points
         return codePoint == ZWJ ||
-                EMOJI_VARIANT_SELECTORS.contains(codePoint) ||
-                EMOJI_FITZPATRICK_MODIFIERS.contains(codePoint) ||
+                codePoint == 0xFE0E || codePoint == 0xFE0F ||
+                (codePoint >= 0x1F3FB && codePoint <= 0x1F3FF) ||
                 Character.UnicodeBlock.of(codePoint) == Character.UnicodeBlock.COMBINING_MARKS_FOR_SYMBOLS;
     }
 
@@ -58,7 +61,7 @@ public class CharacterUtils {
     }
 
     public static boolean isSubdivisionFlagPart(int codePoint) {
-        return SUBDIVISION_FLAG_PARTS.contains(codePoint);
+        return Arrays.binarySearch(SUBDIVISION_FLAG_PARTS, codePoint) >= 0;
     }
 
     /**
@@ -115,29 +118,34 @@ public class CharacterUtils {
         if (TextUtils.isEmpty(str))
             return 0;
 
-        int length = str.length();
-        int result = 0;
-        int i = length;
+        return str.length() - getCharacterStartBefore(str, str.length());
+    }
+
+    /**
+     * Reverse scanner over user-perceived characters: ZWJ sequences, emoji with modifiers and flags are single characters.
+     * Walks the text in place, so it can be called repeatedly to step back character by character
+     *
+     * @return start index of the character which ends at given index, 0 if there is nothing before it
+     */
+    public static int getCharacterStartBefore(CharSequence str, int end) {
+        int i = end;
         boolean afterModifier = false;
         boolean afterFlagPart = false;
 
         while (i > 0) {
             int codePoint = Character.codePointBefore(str, i);
 
-            if (i == length || afterModifier || afterFlagPart || codePoint == ZWJ) {
-                int cpLength = Character.charCount(codePoint);
-                result += cpLength;
-
+            if (i == end || afterModifier || afterFlagPart || codePoint == ZWJ) {
                 afterModifier = isEmojiModifier(codePoint);
-                afterFlagPart = (i == length && isCommonFlagPart(codePoint)) || isSubdivisionFlagPart(codePoint);
+                afterFlagPart = (i == end && isCommonFlagPart(codePoint)) || isSubdivisionFlagPart(codePoint);
 
-                i -= cpLength;
+                i -= Character.charCount(codePoint);
             } else {
                 break;
             }
         }
 
-        return result;
+        return i;
     }
 
     /**
@@ -145,19 +153,75 @@ public class CharacterUtils {
      *
      * @return 0 if there is no separators in given string, otherwise returns index of the first char of the word
      */
-    public static int getLastWordStartIndex(CharSequence str, String nonLetterAndDigitExclusions) {
-        final int[] codePoints = str.codePoints().toArray();
-        int charCounter = str.length();
-
-        for (int i = codePoints.length - 1; i >= 0; i--) {
-            int codePoint = codePoints[i];
-            if (!Character.isLetterOrDigit(codePoint) &&
-                    !nonLetterAndDigitExclusions.contains(new String(Character.toChars(codePoint)))) {
-                return charCounter;
+    public static int getLastWordStartIndex(CharSequence str, WordCharacterClassifier wordCharacterClassifier) {
+        return getWordStartBefore(str, str.length(), wordCharacterClassifier);
+    }
+
+    /**
+     * Reverse scanner over words, walks the text in place without copying it
+     *
+     * @return index of the first char of the word which ends at given index, the index itself if there is no word
+     */
+    public static int getWordStartBefore(CharSequence str, int end, WordCharacterClassifier wordCharacterClassifier) {
+        int i = end;
+        while (i > 0) {
+            int codePoint = Character.codePointBefore(str, i);
+            if (!wordCharacterClassifier.isWordCharacter(codePoint)) {
+                break;
+            }
+            i -= Character.charCount(codePoint);
+        }
+        return i;
+    }
+
+    /**
+     * Span of word deletion: each word takes the separators which follow it, e.g. "one two, |" loses "two, " per word
+     *
+     * @return start index of the given number of words which end at given index, 0 if there are fewer words before it
+     */
+    public static int getWordsStartBefore(CharSequence str, int end, int wordCount, WordCharacterClassifier wordCharacterClassifier) {
+        int i = end;
+        for (int word = 0; word < wordCount && i > 0; word++) {
+            while (i > 0 && !wordCharacterClassifier.isWordCharacter(Character.codePointBefore(str, i))) {
+                i = getCharacterStartBefore(str, i);
             }
-            charCounter -= Character.charCount(codePoint);
+            i = getWordStartBefore(str, i, wordCharacterClassifier);
+        }
+        return i;
+    }
+
+    /**
+     * Splits long text into chunks without breaking surrogate pairs and ZWJ-combined emoji
+     *
+     * @return end index of the chunk which starts at given index and is not longer than given length,
+     * unless its first character alone is longer
+     */
+    public static int getChunkEnd(CharSequence str, int start, int maxLength) {
+        int end = start + maxLength;
+        if (end >= str.length()) {
+            return str.length();
         }
 
+        int boundary = getCharacterStartBefore(str, end);
+        if (boundary > start) {
+            return boundary;
+        }
+
+        // Single character spans the whole chunk, only surrogate pairs are kept intact then
+        return Character.isLowSurrogate(str.charAt(end)) ? end + 1 : end;
+    }
+
+    /**
+     * Line break right before given index belongs to the line which ends with it
+     *
+     * @return start index of the line which ends at given index, 0 if there is no line break before it
+     */
+    public static int getLineStartBefore(CharSequence str, int end) {
+        for (int i = end - 1; i > 0; i--) {
+            if (str.charAt(i - 1) == '\n') {
+                return i;
+            }
+        }
         return 0;
     }
 
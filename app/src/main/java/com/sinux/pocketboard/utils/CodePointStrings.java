@@ -0,0 +1,91 @@
+package com.sinux.pocketboard.utils;
+
+import java.util.Arrays;
+
+/**
+ * Shared strings of single code points, so printing a character doesn't allocate a new string every time.
+ * Latin-1 characters are always cached, other code points are registered when keyboard mappings are loaded
+ */
+public final class CodePointStrings {
+
+    private static final int DENSE_LIMIT = 0x100;
+    private static final String[] DENSE_STRINGS = new String[DENSE_LIMIT];
+
+    static {
+        for (int i = 0; i < DENSE_LIMIT; i++) {
+            DENSE_STRINGS[i] = String.valueOf((char) i);
+        }
+    }
+
+    /**
+     * Registered code points are published as a whole, so readers never see partially updated table
+     */
+    private static volatile SparseTable sparseTable = new SparseTable(new int[0], new String[0]);
+
+    private CodePointStrings() {
+    }
+
+    /**
+     * @return string of a single code point, shared one if the code point is cached
+     */
+    public static String get(int codePoint) {
+        if (codePoint >= 0 && codePoint < DENSE_LIMIT) {
+            return DENSE_STRINGS[codePoint];
+        }
+
+        SparseTable table = sparseTable;
+        int index = Arrays.binarySearch(table.codePoints, codePoint);
+        return index >= 0 ? table.strings[index] : new String(Character.toChars(codePoint));
+    }
+
+    /**
+     * Caches strings of given code points, zeros and invalid code points are skipped
+     */
+    public static synchronized void register(int[] codePoints) {
+        SparseTable table = sparseTable;
+        int[] newCodePoints = null;
+        int count = table.codePoints.length;
+
+        for (int codePoint : codePoints) {
+            if (codePoint < DENSE_LIMIT || !Character.isValidCodePoint(codePoint) ||
+                    Arrays.binarySearch(table.codePoints, codePoint) >= 0) {
+                continue;
+            }
+            if (newCodePoints == null) {
+                newCodePoints = Arrays.copyOf(table.codePoints, table.codePoints.length + codePoints.length);
+            }
+            newCodePoints[count++] = codePoint;
+        }
+        if (newCodePoints == null) {
+            return;
+        }
+
+        // Drop duplicates among new code points
+        Arrays.sort(newCodePoints, 0, count);
+        int uniqueCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (uniqueCount == 0 || newCodePoints[uniqueCount - 1] != newCodePoints[i]) {
+                newCodePoints[uniqueCount++] = newCodePoints[i];
+            }
+        }
+        newCodePoints = Arrays.copyOf(newCodePoints, uniqueCount);
+
+        String[] newStrings = new String[uniqueCount];
+        for (int i = 0; i < uniqueCount; i++) {
+            int index = Arrays.binarySearch(table.codePoints, newCodePoints[i]);
+            newStrings[i] = index >= 0 ? table.strings[index] : new String(Character.toChars(newCodePoints[i]));
+        }
+        sparseTable = new SparseTable(newCodePoints, newStrings);
+    }
+
+    private static final class SparseTable {
+
+        private final int[] codePoints;
+        private final String[] strings;
+
+        SparseTable(int[] codePoints, String[] strings) {
+            this.codePoints = codePoints;
+            this.strings = strings;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.sinux.pocketboard.input;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameUpdateCoalescerTest {
+
+    private static final double FRAME_INTERVAL_MS = 1000.0 / 60;
+
+    @Test
+    public void coalesceTest() {
+        ManualFrameScheduler scheduler = new ManualFrameScheduler();
+        int[] updates = new int[1];
+        FrameUpdateCoalescer coalescer = new FrameUpdateCoalescer(scheduler, () -> updates[0]++);
+
+        coalescer.request();
+        coalescer.request();
+        coalescer.request();
+        Assert.assertTrue(coalescer.isPending());
+        Assert.assertEquals(0, updates[0]);
+
+        scheduler.runFrame();
+        Assert.assertEquals(1, updates[0]);
+        Assert.assertFalse(coalescer.isPending());
+        Assert.assertEquals(3, coalescer.getRequestedCount());
+        Assert.assertEquals(1, coalescer.getPerformedCount());
+
+        // Nothing is pending, so the next frame doesn't update
+        scheduler.runFrame();
+        Assert.assertEquals(1, updates[0]);
+    }
+
+    @Test
+    public void flushAndCancelTest() {
+        ManualFrameScheduler scheduler = new ManualFrameScheduler();
+        int[] updates = new int[1];
+        FrameUpdateCoalescer coalescer = new FrameUpdateCoalescer(scheduler, () -> updates[0]++);
+
+        coalescer.request();
+        coalescer.flush();
+        Assert.assertEquals(1, updates[0]);
+        Assert.assertNull(scheduler.callback);
+
+        coalescer.request();
+        coalescer.cancel();
+        scheduler.runFrame();
+        Assert.assertEquals(1, updates[0]);
+
+        coalescer.flush();
+        Assert.assertEquals(1, updates[0]);
+    }
+
+    /**
+     * Sustained typing for a second at different key rates, one composing update per key without coalescing
+     */
+    @Test
+    public void sustainedTypingTest() {
+        for (int keysPerSecond : new int[]{10, 30, 60, 120, 240}) {
+            ManualFrameScheduler scheduler = new ManualFrameScheduler();
+            FrameUpdateCoalescer coalescer = new FrameUpdateCoalescer(scheduler, () -> { });
+
+            int frames = 0;
+            for (int key = 0; key < keysPerSecond; key++) {
+                double keyTime = key * 1000.0 / keysPerSecond;
+                while ((frames + 1) * FRAME_INTERVAL_MS <= keyTime) {
+                    scheduler.runFrame();
+                    frames++;
+                }
+                coalescer.request();
+            }
+            coalescer.flush();
+
+            Assert.assertEquals(keysPerSecond, coalescer.getRequestedCount());
+            Assert.assertTrue(coalescer.getPerformedCount() <= Math.min(keysPerSecond, 61));
+        }
+    }
+
+    private static class ManualFrameScheduler implements FrameUpdateCoalescer.FrameScheduler {
+
+        private Runnable callback;
+
+        @Override
+        public void postFrameCallback(Runnable callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void removeFrameCallback(Runnable callback) {
+            this.callback = null;
+        }
+
+        void runFrame() {
+            Runnable frameCallback = callback;
+            callback = null;
+            if (frameCallback != null) {
+                frameCallback.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.sinux.pocketboard.input;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class KeyEventPipelineTest {
+
+    private static final int CONNECTED_STATE = 1;
+    private static final int SYM_FIXED_STATE = 1 << 1;
+
+    private final List<String> calls = new ArrayList<>();
+
+    @Test
+    public void stagesOrderTest() {
+        KeyEventPipeline pipeline = new KeyEventPipeline();
+        pipeline.register("first", 0, 0, stage("first", KeyEventPipeline.Result.CONTINUE));
+        pipeline.register("second", 0, 0, stage("second", KeyEventPipeline.Result.PASSED));
+        pipeline.register("third", 0, 0, stage("third", KeyEventPipeline.Result.HANDLED));
+
+        Assert.assertFalse(pipeline.dispatchKeyDown(0, 0, null, null));
+        Assert.assertEquals(List.of("first", "second"), calls);
+        // Stages without key up handling let the event go further
+        Assert.assertFalse(pipeline.dispatchKeyUp(0, 0, null, null));
+        Assert.assertEquals(List.of("first", "second"), calls);
+    }
+
+    @Test
+    public void activeStagesTest() {
+        KeyEventPipeline pipeline = new KeyEventPipeline();
+        pipeline.register("connected", CONNECTED_STATE, 0, stage("connected", KeyEventPipeline.Result.CONTINUE));
+        pipeline.register("sym", CONNECTED_STATE | SYM_FIXED_STATE, 0, stage("sym", KeyEventPipeline.Result.CONTINUE));
+        pipeline.register("not sym", 0, SYM_FIXED_STATE, stage("not sym", KeyEventPipeline.Result.HANDLED));
+
+        Assert.assertTrue(pipeline.dispatchKeyDown(0, 0, null, null));
+        Assert.assertEquals(List.of("not sym"), calls);
+
+        calls.clear();
+        Assert.assertFalse(pipeline.dispatchKeyDown(CONNECTED_STATE | SYM_FIXED_STATE, 0, null, null));
+        Assert.assertEquals(List.of("connected", "sym"), calls);
+    }
+
+    @Test
+    public void rebuildOnStateChangeTest() {
+        KeyEventPipeline pipeline = new KeyEventPipeline();
+        pipeline.register("connected", CONNECTED_STATE, 0, stage("connected", KeyEventPipeline.Result.CONTINUE));
+
+        for (int i = 0; i < 10; i++) {
+            pipeline.dispatchKeyDown(CONNECTED_STATE, 0, null, null);
+        }
+        Assert.assertEquals(1, pipeline.getRebuildCount());
+
+        pipeline.dispatchKeyDown(0, 0, null, null);
+        pipeline.dispatchKeyUp(0, 0, null, null);
+        Assert.assertEquals(2, pipeline.getRebuildCount());
+    }
+
+    @Test
+    public void statsTest() {
+        KeyEventPipeline pipeline = new KeyEventPipeline();
+        pipeline.register("first", 0, 0, stage("first", KeyEventPipeline.Result.CONTINUE));
+        pipeline.register("second", 0, 0, stage("second", KeyEventPipeline.Result.HANDLED));
+
+        pipeline.dispatchKeyDown(0, 0, null, null);
+        pipeline.dispatchKeyDown(0, 0, null, null);
+
+        KeyEventPipeline.StageStats first = pipeline.getStats().get(0);
+        KeyEventPipeline.StageStats second = pipeline.getStats().get(1);
+        Assert.assertEquals("first", first.getName());
+        Assert.assertEquals(2, first.getEventCount());
+        Assert.assertEquals(0, first.getConsumedCount());
+        Assert.assertEquals(2, second.getEventCount());
+        Assert.assertEquals(2, second.getConsumedCount());
+        // Time isn't measured unless timing is enabled
+        Assert.assertEquals(0, second.getTotalTimeNanos());
+
+        pipeline.setTimingEnabled(true);
+        pipeline.dispatchKeyDown(0, 0, null, null);
+        Assert.assertEquals(3, second.getEventCount());
+        Assert.assertTrue(second.getTotalTimeNanos() >= 0);
+
+        pipeline.resetStats();
+        Assert.assertEquals(0, first.getEventCount());
+        Assert.assertEquals(0, pipeline.getRebuildCount());
+    }
+
+    private KeyEventPipeline.Stage stage(String name, KeyEventPipeline.Result result) {
+        return (keyCode, event, inputConnection) -> {
+            calls.add(name);
+            return result;
+        };
+    }
+}
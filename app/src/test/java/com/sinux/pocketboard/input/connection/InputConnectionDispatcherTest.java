@@ -0,0 +1,71 @@
+package com.sinux.pocketboard.input.connection;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class InputConnectionDispatcherTest {
+
+    @Test
+    public void orderTest() {
+        InputConnectionDispatcher dispatcher = new InputConnectionDispatcher("test");
+        List<Integer> result = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            int value = i;
+            expected.add(value);
+            dispatcher.dispatch(() -> result.add(value));
+        }
+
+        Assert.assertTrue(dispatcher.awaitIdle(5000));
+        Assert.assertTrue(dispatcher.isIdle());
+        Assert.assertEquals(expected, result);
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void slowOperationTest() throws Exception {
+        InputConnectionDispatcher dispatcher = new InputConnectionDispatcher("test");
+        CountDownLatch editorLatch = new CountDownLatch(1);
+        List<String> result = Collections.synchronizedList(new ArrayList<>());
+
+        // Dispatching thread isn't blocked by the slow editor
+        dispatcher.dispatch(() -> {
+            try {
+                editorLatch.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            result.add("slow");
+        });
+        dispatcher.dispatch(() -> result.add("next"));
+        Assert.assertFalse(dispatcher.awaitIdle(50));
+        Assert.assertTrue(result.isEmpty());
+
+        editorLatch.countDown();
+        Assert.assertTrue(dispatcher.awaitIdle(5000));
+        Assert.assertEquals(List.of("slow", "next"), result);
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void failedOperationTest() {
+        InputConnectionDispatcher dispatcher = new InputConnectionDispatcher("test");
+        List<String> result = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.setFailureListener(e -> result.add(e.getMessage()));
+
+        dispatcher.dispatch(() -> {
+            throw new IllegalStateException("Editor is gone");
+        });
+        dispatcher.dispatch(() -> result.add("next"));
+
+        Assert.assertTrue(dispatcher.awaitIdle(5000));
+        Assert.assertEquals(List.of("Editor is gone", "next"), result);
+        dispatcher.shutdown();
+    }
+}
@@ -0,0 +1,46 @@
+package com.sinux.pocketboard.input.connection;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IpcAccountingTest {
+
+    @Test
+    public void attributionTest() {
+        IpcAccounting ipcAccounting = new IpcAccounting();
+
+        ipcAccounting.beginKeystroke("down SPACE");
+        ipcAccounting.record("commitText", 30_000);
+        ipcAccounting.record("commitText", 2_000_000);
+        ipcAccounting.endKeystroke();
+        ipcAccounting.record("setComposingText", 1_000);
+
+        String report = ipcAccounting.dump();
+        Assert.assertTrue(report, report.contains("down SPACE: 1 keystrokes, 2.00 calls per keystroke"));
+        Assert.assertTrue(report, report.contains("commitText: 2 calls, avg 1015 us, max 2000 us"));
+        Assert.assertTrue(report, report.contains("<50us:1 "));
+        Assert.assertTrue(report, report.contains("<2500us:1 "));
+        Assert.assertTrue(report, report.contains(IpcAccounting.UNATTRIBUTED + ": 1 calls"));
+
+        ipcAccounting.reset();
+        Assert.assertEquals("", ipcAccounting.dump());
+    }
+
+    @Test
+    public void dispatchedOperationTest() throws InterruptedException {
+        IpcAccounting ipcAccounting = new IpcAccounting();
+
+        ipcAccounting.beginKeystroke("down DEL");
+        Runnable operation = ipcAccounting.attribute(() -> ipcAccounting.record("deleteSurroundingText", 1_000));
+        ipcAccounting.endKeystroke();
+
+        // Operation runs later on another thread, like edits sent by the dispatcher
+        Thread thread = new Thread(operation);
+        thread.start();
+        thread.join();
+
+        String report = ipcAccounting.dump();
+        Assert.assertTrue(report, report.contains("down DEL: 1 keystrokes, 1.00 calls per keystroke"));
+        Assert.assertFalse(report, report.contains(IpcAccounting.UNATTRIBUTED));
+    }
+}
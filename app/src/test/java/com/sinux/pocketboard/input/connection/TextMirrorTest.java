@@ -0,0 +1,201 @@
+package com.sinux.pocketboard.input.connection;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TextMirrorTest {
+
+    @Test
+    public void unknownTextTest() {
+        TextMirror textMirror = new TextMirror();
+        Assert.assertFalse(textMirror.isSelectionKnown());
+        Assert.assertNull(textMirror.getTextBeforeCursor(1));
+
+        // Text can't be bound to unknown selection
+        textMirror.setTextBeforeCursor("abc", 10);
+        Assert.assertNull(textMirror.getTextBeforeCursor(1));
+
+        textMirror.startInput(3, 3);
+        Assert.assertNull(textMirror.getTextBeforeCursor(1));
+        textMirror.setTextBeforeCursor("abc", 10);
+        Assert.assertEquals("bc", textMirror.getTextBeforeCursor(2).toString());
+        // Beginning of the document has been reached
+        Assert.assertEquals("abc", textMirror.getTextBeforeCursor(10).toString());
+        Assert.assertTrue(textMirror.reachesStart(3));
+        Assert.assertFalse(textMirror.reachesStart(2));
+    }
+
+    @Test
+    public void partialTextTest() {
+        TextMirror textMirror = new TextMirror();
+        textMirror.startInput(100, 100);
+        textMirror.setTextBeforeCursor("abc", 3);
+
+        Assert.assertEquals("abc", textMirror.getTextBeforeCursor(3).toString());
+        Assert.assertNull(textMirror.getTextBeforeCursor(4));
+        // Text goes on beyond the mirrored part
+        Assert.assertFalse(textMirror.reachesStart(3));
+    }
+
+    @Test
+    public void composingTest() {
+        TextMirror textMirror = startedMirror("Hello ");
+
+        textMirror.setComposingText("w", 1);
+        textMirror.setComposingText("wo", 1);
+        textMirror.setComposingText("wor", 1);
+        Assert.assertEquals("Hello wor", textMirror.getTextBeforeCursor(20).toString());
+        Assert.assertEquals(9, textMirror.getSelectionStart());
+
+        textMirror.commitText("world", 1);
+        Assert.assertEquals("Hello world", textMirror.getTextBeforeCursor(20).toString());
+        Assert.assertEquals(11, textMirror.getSelectionStart());
+
+        // Only the last update is reported for several edits
+        Assert.assertTrue(textMirror.onUpdateSelection(11, 11, -1, -1));
+        Assert.assertEquals("Hello world", textMirror.getTextBeforeCursor(20).toString());
+    }
+
+    @Test
+    public void batchEditTest() {
+        TextMirror textMirror = startedMirror("word ");
+
+        textMirror.beginBatchEdit();
+        textMirror.deleteSurroundingText(1, 0);
+        textMirror.commitText(". ", 1);
+        textMirror.endBatchEdit();
+        Assert.assertEquals("word. ", textMirror.getTextBeforeCursor(20).toString());
+
+        // Intermediate states of a batch edit aren't reported
+        Assert.assertFalse(textMirror.onUpdateSelection(4, 4, -1, -1));
+        Assert.assertNull(textMirror.getTextBeforeCursor(1));
+    }
+
+    @Test
+    public void deleteTest() {
+        TextMirror textMirror = startedMirror("ab😀");
+
+        textMirror.deleteSurroundingTextInCodePoints(1, 0);
+        Assert.assertEquals("ab", textMirror.getTextBeforeCursor(20).toString());
+        Assert.assertEquals(2, textMirror.getSelectionStart());
+
+        textMirror.deleteSurroundingText(5, 0);
+        Assert.assertEquals("", textMirror.getTextBeforeCursor(20).toString());
+        Assert.assertEquals(0, textMirror.getSelectionStart());
+        Assert.assertTrue(textMirror.onUpdateSelection(0, 0, -1, -1));
+    }
+
+    @Test
+    public void deleteBeyondMirroredTextTest() {
+        TextMirror textMirror = new TextMirror();
+        textMirror.startInput(10, 10);
+        textMirror.setTextBeforeCursor("ab", 2);
+
+        textMirror.deleteSurroundingTextInCodePoints(3, 0);
+        Assert.assertFalse(textMirror.isSelectionKnown());
+        Assert.assertNull(textMirror.getTextBeforeCursor(1));
+    }
+
+    @Test
+    public void composingRegionTest() {
+        TextMirror textMirror = startedMirror("one two");
+
+        textMirror.setComposingRegion(4, 7);
+        textMirror.setComposingText("three", 1);
+        Assert.assertEquals("one three", textMirror.getTextBeforeCursor(20).toString());
+        Assert.assertTrue(textMirror.onUpdateSelection(9, 9, 4, 9));
+    }
+
+    @Test
+    public void externalEditTest() {
+        TextMirror textMirror = startedMirror("abc");
+
+        textMirror.commitText("d", 1);
+        // Editor reports another position, e.g. the user has moved the cursor
+        Assert.assertFalse(textMirror.onUpdateSelection(1, 1, -1, -1));
+        Assert.assertNull(textMirror.getTextBeforeCursor(1));
+        Assert.assertEquals(1, textMirror.getSelectionStart());
+
+        textMirror.setTextBeforeCursor("a", 10);
+        Assert.assertEquals("a", textMirror.getTextBeforeCursor(10).toString());
+    }
+
+    @Test
+    public void selectionReplaceTest() {
+        TextMirror textMirror = new TextMirror();
+        textMirror.startInput(2, 5);
+        textMirror.setTextBeforeCursor("ab", 10);
+
+        Assert.assertFalse(textMirror.hasEmptySelection());
+        textMirror.commitText("x", 1);
+        Assert.assertTrue(textMirror.hasEmptySelection());
+        Assert.assertEquals("abx", textMirror.getTextBeforeCursor(10).toString());
+    }
+
+    @Test
+    public void capacityTest() {
+        TextMirror textMirror = startedMirror("");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < TextMirror.CAPACITY + 10; i++) {
+            text.append((char) ('a' + i % 26));
+            textMirror.commitText(String.valueOf((char) ('a' + i % 26)), 1);
+        }
+
+        Assert.assertEquals(text.substring(10), textMirror.getTextBeforeCursor(TextMirror.CAPACITY).toString());
+        Assert.assertNull(textMirror.getTextBeforeCursor(TextMirror.CAPACITY + 1));
+    }
+
+    @Test
+    public void invalidateTest() {
+        TextMirror textMirror = startedMirror("abc");
+
+        textMirror.invalidate();
+        Assert.assertFalse(textMirror.isSelectionKnown());
+        Assert.assertNull(textMirror.getTextBeforeCursor(1));
+
+        // Selection is restored by the next update
+        Assert.assertFalse(textMirror.onUpdateSelection(4, 4, -1, -1));
+        Assert.assertEquals(4, textMirror.getSelectionStart());
+    }
+
+    @Test
+    public void textAfterCursorTest() {
+        TextMirror textMirror = startedMirror("ab");
+        Assert.assertNull(textMirror.getTextAfterCursor(1));
+        textMirror.setTextAfterCursor("cd😀", 10);
+
+        textMirror.commitText("x", 1);
+        Assert.assertEquals("cd", textMirror.getTextAfterCursor(2).toString());
+        textMirror.deleteSurroundingText(0, 1);
+        Assert.assertEquals("d😀", textMirror.getTextAfterCursor(10).toString());
+        textMirror.deleteSurroundingTextInCodePoints(0, 2);
+        Assert.assertEquals("", textMirror.getTextAfterCursor(10).toString());
+        Assert.assertEquals("abx", textMirror.getTextBeforeCursor(10).toString());
+
+        // Cursor placed in front of the inserted text
+        textMirror.commitText("y", 0);
+        Assert.assertNull(textMirror.getTextAfterCursor(1));
+    }
+
+    @Test
+    public void seededTextTest() {
+        TextMirror textMirror = new TextMirror();
+        textMirror.startInput(2, 2);
+        // Text is as long as the cursor offset, so it starts at the beginning of the document
+        textMirror.setTextBeforeCursor("ab", 2);
+        textMirror.setTextAfterCursor("cd", 2);
+
+        Assert.assertEquals("ab", textMirror.getTextBeforeCursor(10).toString());
+        Assert.assertNull(textMirror.getTextAfterCursor(3));
+
+        textMirror.setSelection(0, 0);
+        Assert.assertNull(textMirror.getTextAfterCursor(1));
+    }
+
+    private static TextMirror startedMirror(String text) {
+        TextMirror textMirror = new TextMirror();
+        textMirror.startInput(text.length(), text.length());
+        textMirror.setTextBeforeCursor(text, text.length() + 1);
+        return textMirror;
+    }
+}
@@ -0,0 +1,35 @@
+package com.sinux.pocketboard.input.editor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RawInputDetectorTest {
+
+    @Test
+    public void ignoredEditsTest() {
+        RawInputDetector detector = new RawInputDetector();
+        for (int i = 1; i < RawInputDetector.UNACKNOWLEDGED_EDITS_THRESHOLD; i++) {
+            detector.onEdit();
+        }
+        Assert.assertFalse(detector.isRawInputDetected());
+        detector.onEdit();
+        Assert.assertTrue(detector.isRawInputDetected());
+
+        detector.reset();
+        Assert.assertFalse(detector.isRawInputDetected());
+    }
+
+    @Test
+    public void acknowledgedEditsTest() {
+        RawInputDetector detector = new RawInputDetector();
+        detector.onEdit();
+        Assert.assertFalse(detector.isSelectionUpdated());
+        detector.onSelectionUpdate();
+        Assert.assertTrue(detector.isSelectionUpdated());
+        // Editor which has answered once is trusted for the rest of the session
+        for (int i = 0; i < RawInputDetector.UNACKNOWLEDGED_EDITS_THRESHOLD * 2; i++) {
+            detector.onEdit();
+        }
+        Assert.assertFalse(detector.isRawInputDetected());
+    }
+}
@@ -0,0 +1,86 @@
+package com.sinux.pocketboard.input.mapping;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ComposeSequenceTest {
+
+    private ComposeTable composeTable;
+    private ComposeSequence composeSequence;
+    private StringBuilder output;
+
+    @Before
+    public void setUp() {
+        Map<String, Integer> sequences = new HashMap<>();
+        sequences.put("´e", 0xE9);
+        sequences.put("oe", 0x153);
+        sequences.put("oe´", 0x1E53);
+        composeTable = new ComposeTable(sequences);
+        composeSequence = new ComposeSequence();
+        output = new StringBuilder();
+    }
+
+    @Test
+    public void resolvedSequenceTest() {
+        type("´");
+        Assert.assertTrue(composeSequence.isPending());
+        Assert.assertEquals("", output.toString());
+
+        type("e");
+        Assert.assertFalse(composeSequence.isPending());
+        Assert.assertEquals("é", output.toString());
+    }
+
+    @Test
+    public void brokenSequenceTest() {
+        type("´x");
+        Assert.assertFalse(composeSequence.isPending());
+        Assert.assertEquals("´x", output.toString());
+    }
+
+    @Test
+    public void enterWithPendingDeadKeyTest() {
+        type("a´");
+        // Enter is a commit boundary, dead key is printed before the line break
+        composeSequence.flush(output);
+        output.append('\n');
+        type("e");
+        Assert.assertFalse(composeSequence.isPending());
+        Assert.assertEquals("a´\ne", output.toString());
+    }
+
+    @Test
+    public void enterWithResolvedPrefixTest() {
+        type("oe");
+        Assert.assertTrue(composeSequence.isPending());
+        composeSequence.flush(output);
+        Assert.assertEquals("œ", output.toString());
+    }
+
+    @Test
+    public void cursorMoveWithPendingDeadKeyTest() {
+        type("´");
+        // Cursor has been moved away, the dead key must not resolve with the character typed at the new position
+        composeSequence.reset();
+        type("e");
+        Assert.assertFalse(composeSequence.isPending());
+        Assert.assertEquals("e", output.toString());
+    }
+
+    @Test
+    public void replaceLastTest() {
+        type("o");
+        composeSequence.replaceLast(composeTable, '´', output);
+        Assert.assertTrue(composeSequence.isPending());
+        type("e");
+        Assert.assertEquals("é", output.toString());
+    }
+
+    private void type(String characters) {
+        characters.codePoints().forEach(codePoint -> composeSequence.next(composeTable, codePoint, output));
+    }
+}
@@ -0,0 +1,66 @@
+package com.sinux.pocketboard.input.mapping;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ComposeTableTest {
+
+    @Test
+    public void sequencesTest() {
+        Map<String, Integer> sequences = new HashMap<>();
+        sequences.put("´e", (int) 'é');
+        sequences.put("´´", (int) '´');
+        sequences.put("oe", (int) 'œ');
+        sequences.put("oe´", (int) 'ṓ');
+        sequences.put("¨𝐚", (int) 'ä');
+        ComposeTable composeTable = new ComposeTable(sequences);
+
+        for (Map.Entry<String, Integer> entry : sequences.entrySet()) {
+            String sequence = entry.getKey();
+            int state = ComposeTable.ROOT_STATE;
+            for (int i = 0; i < sequence.length(); i += Character.charCount(sequence.codePointAt(i))) {
+                Assert.assertTrue(sequence, state == ComposeTable.ROOT_STATE || composeTable.hasTransitions(state));
+                state = composeTable.next(state, sequence.codePointAt(i));
+                Assert.assertNotEquals(sequence, ComposeTable.NO_STATE, state);
+            }
+            Assert.assertEquals(sequence, (int) entry.getValue(), composeTable.getValue(state));
+        }
+
+        // Resolved sequence which is also a prefix of a longer one
+        int state = composeTable.next(composeTable.next(ComposeTable.ROOT_STATE, 'o'), 'e');
+        Assert.assertEquals('œ', composeTable.getValue(state));
+        Assert.assertTrue(composeTable.hasTransitions(state));
+
+        // Intermediate and unknown states
+        state = composeTable.next(ComposeTable.ROOT_STATE, '´');
+        Assert.assertEquals(0, composeTable.getValue(state));
+        Assert.assertEquals(ComposeTable.NO_STATE, composeTable.next(state, 'x'));
+        Assert.assertEquals(ComposeTable.NO_STATE, composeTable.next(ComposeTable.ROOT_STATE, 'e'));
+        Assert.assertFalse(composeTable.hasTransitions(composeTable.next(state, 'e')));
+    }
+
+    @Test
+    public void emptyTableTest() {
+        Assert.assertTrue(ComposeTable.EMPTY.isEmpty());
+        Assert.assertEquals(ComposeTable.NO_STATE, ComposeTable.EMPTY.next(ComposeTable.ROOT_STATE, 'a'));
+    }
+
+    @Test
+    public void overlayTest() {
+        ComposeTable base = new ComposeTable(Collections.singletonMap("´e", (int) 'é'));
+        ComposeTable overlay = new ComposeTable(Collections.singletonMap("´e", (int) 'è'));
+
+        Assert.assertSame(base, base.withOverlay(ComposeTable.EMPTY));
+        ComposeTable merged = base.withOverlay(overlay);
+        Assert.assertEquals('è', merged.getValue(merged.next(merged.next(ComposeTable.ROOT_STATE, '´'), 'e')));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void singleCharacterSequenceTest() {
+        new ComposeTable(Collections.singletonMap("𝐚", (int) 'a'));
+    }
+}
@@ -0,0 +1,133 @@
+package com.sinux.pocketboard.input.mapping;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class CustomKeyboardMappingStoreTest {
+
+    private static final String MAPPING =
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+            "<KeyboardMapping>\n" +
+            "    <Key code=\"45\" value=\"q\" shiftValue=\"Q\">\n" +
+            "        <Alt value=\"1\" />\n" +
+            "    </Key>\n" +
+            "</KeyboardMapping>";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void importAndLoadTest() throws Exception {
+        CustomKeyboardMappingStore store = new CustomKeyboardMappingStore(temporaryFolder.getRoot(), false);
+
+        String hash = store.importMapping(toStream(MAPPING));
+        Assert.assertEquals(64, hash.length());
+        Assert.assertEquals(hash, store.importMapping(toStream(MAPPING)));
+
+        KeyMapping keyMapping = store.loadMapping(hash).getKeyMapping(45);
+        Assert.assertEquals('Q', keyMapping.getValue(true, false, (byte) 0));
+        Assert.assertEquals('1', keyMapping.getValue(false, true, (byte) 0));
+
+        // Previous mapping is removed on next import
+        String newHash = store.importMapping(toStream(MAPPING.replace("\"q\"", "\"w\"")));
+        Assert.assertNotEquals(hash, newHash);
+        Assert.assertEquals('w', store.loadMapping(newHash).getKeyMapping(45).getValue(false, false, (byte) 0));
+        Assert.assertThrows(IOException.class, () -> store.loadMapping(hash));
+    }
+
+    @Test
+    public void shippedMappingsImportTest() throws Exception {
+        CustomKeyboardMappingStore store = new CustomKeyboardMappingStore(temporaryFolder.getRoot(), false);
+
+        for (File mappingFile : KeyboardMappingSerializerTest.listMappingFiles()) {
+            KeyboardMapping reference = KeyboardMappingSerializerTest.parseMapping(mappingFile);
+            if (reference.isOverlay()) {
+                continue;
+            }
+            try (InputStream in = new FileInputStream(mappingFile)) {
+                String hash = store.importMapping(in);
+                KeyboardMappingSerializerTest.assertMappingsEqual(mappingFile.getName(), reference, store.loadMapping(hash));
+            }
+        }
+    }
+
+    @Test
+    public void outdatedCompiledMappingTest() throws Exception {
+        CustomKeyboardMappingStore store = new CustomKeyboardMappingStore(temporaryFolder.getRoot(), false);
+        String hash = store.importMapping(toStream(MAPPING));
+
+        File compiledFile = new File(temporaryFolder.getRoot(), hash + KeyboardMappingSerializer.FILE_EXTENSION);
+        try (FileOutputStream out = new FileOutputStream(compiledFile)) {
+            out.write(new byte[]{1, 2, 3});
+        }
+
+        Assert.assertEquals('q', store.loadMapping(hash).getKeyMapping(45).getValue(false, false, (byte) 0));
+        Assert.assertEquals('q', store.loadMapping(hash).getKeyMapping(45).getValue(false, false, (byte) 0));
+    }
+
+    @Test
+    public void malformedMappingTest() throws Exception {
+        CustomKeyboardMappingStore store = new CustomKeyboardMappingStore(temporaryFolder.getRoot(), false);
+        String hash = store.importMapping(toStream(MAPPING));
+
+        String[] malformedMappings = {
+                "<KeyboardMapping>",
+                "<KeyboardMapping></KeyboardMapping>",
+                "<KeyboardMapping overlay=\"true\"><Key code=\"1\" value=\"a\" /></KeyboardMapping>",
+                "<KeyboardMapping><Key value=\"a\" /></KeyboardMapping>",
+                "<KeyboardMapping><Key code=\"x\" value=\"a\" /></KeyboardMapping>",
+                "<KeyboardMapping><Key code=\"-1\" value=\"a\" /></KeyboardMapping>",
+                "<KeyboardMapping><Key code=\"1\" /></KeyboardMapping>",
+                "<KeyboardMapping><Key code=\"1\" value=\"abc\" /></KeyboardMapping>",
+                "<KeyboardMapping><Key code=\"1\" value=\"a\" /><Key code=\"1\" value=\"b\" /></KeyboardMapping>",
+                "<KeyboardMapping><Key code=\"1\" value=\"a\" color=\"red\" /></KeyboardMapping>",
+                "<KeyboardMapping><Key code=\"1\" value=\"a\"><Extra /></Key></KeyboardMapping>",
+                "<KeyboardMapping><Add value=\"a\" /><Key code=\"1\" value=\"a\" /></KeyboardMapping>",
+                "<KeyboardMapping><Key code=\"1\" value=\"a\" /><Compose sequence=\"a\" value=\"b\" /></KeyboardMapping>",
+                "<Mapping><Key code=\"1\" value=\"a\" /></Mapping>"
+        };
+
+        for (String malformedMapping : malformedMappings) {
+            try {
+                store.importMapping(toStream(malformedMapping));
+                Assert.fail(malformedMapping);
+            } catch (Exception expected) {
+                // Previously imported mapping must survive failed import
+                Assert.assertNotNull(malformedMapping, store.loadMapping(hash));
+            }
+        }
+    }
+
+    @Test
+    public void symPadMappingTest() throws Exception {
+        CustomKeyboardMappingStore store = new CustomKeyboardMappingStore(temporaryFolder.getRoot(), true);
+
+        String hash = store.importMapping(toStream(
+                "<SymPadMapping><Key code=\"KEYCODE_R\" keyCode=\"KEYCODE_MOVE_END\" longPressKeyCode=\"122\" /></SymPadMapping>"));
+        SymPadMapping mapping = SymPadMapping.fromKeyboardMapping(store.loadMapping(hash));
+        Assert.assertEquals(123, mapping.getShortPressKeyCode(46));
+        Assert.assertEquals(122, mapping.getLongPressKeyCode(46));
+
+        // Each store accepts its own kind of mapping only
+        Assert.assertThrows(IllegalArgumentException.class, () -> store.importMapping(toStream(MAPPING)));
+        Assert.assertThrows(IllegalArgumentException.class, () -> new CustomKeyboardMappingStore(temporaryFolder.newFolder(), false)
+                .importMapping(toStream("<SymPadMapping><Key code=\"46\" keyCode=\"123\" /></SymPadMapping>")));
+        Assert.assertThrows(Exception.class, () -> store.importMapping(toStream(
+                "<SymPadMapping><Key code=\"KEYCODE_UNKNOWN_NAME\" keyCode=\"123\" /></SymPadMapping>")));
+        Assert.assertNotNull(store.loadMapping(hash));
+    }
+
+    private static InputStream toStream(String mapping) {
+        return new ByteArrayInputStream(mapping.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,115 @@
+package com.sinux.pocketboard.input.mapping;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+public class KeyMappingTest {
+
+    @Test
+    public void shippedMappingsEquivalenceTest() throws Exception {
+        for (File mappingFile : KeyboardMappingSerializerTest.listMappingFiles()) {
+            KeyboardMapping mapping = KeyboardMappingSerializerTest.parseMapping(mappingFile);
+            for (int keyCode : mapping.getKeyCodes()) {
+                assertEquivalent(mappingFile.getName() + ", key " + keyCode, mapping.getKeyMapping(keyCode));
+            }
+        }
+    }
+
+    @Test
+    public void syntheticMappingsEquivalenceTest() {
+        KeyMappingValue[] values = {
+                new KeyMappingValue('a', 'A'),
+                new KeyMappingValue('b', 0),
+                new KeyMappingValue('c', 'C')
+        };
+        KeyMappingValue[] altValues = {
+                new KeyMappingValue('1', 0),
+                new KeyMappingValue('2', '@')
+        };
+
+        assertEquivalent("no alt", new KeyMapping(values, null));
+        assertEquivalent("empty alt", new KeyMapping(values, new KeyMappingValue[0]));
+        assertEquivalent("single value", new KeyMapping(new KeyMappingValue[]{values[1]}, altValues));
+        assertEquivalent("full", new KeyMapping(values, altValues));
+    }
+
+    private static void assertEquivalent(String message, KeyMapping keyMapping) {
+        LegacyKeyMapping reference = new LegacyKeyMapping(keyMapping.getKeyMappingValues(), keyMapping.getKeyMappingAltValues());
+
+        Assert.assertEquals(message, reference.hasAdditionalValues(false), keyMapping.hasAdditionalValues(false));
+        Assert.assertEquals(message, reference.hasAdditionalValues(true), keyMapping.hasAdditionalValues(true));
+
+        for (int index = 0; index < 256; index++) {
+            byte keyIndex = (byte) index;
+            for (int state = 0; state < 4; state++) {
+                boolean shift = (state & 1) != 0;
+                boolean alt = (state & 2) != 0;
+                Assert.assertEquals(message + ", shift " + shift + ", alt " + alt + ", index " + index,
+                        reference.getValue(shift, alt, keyIndex), keyMapping.getValue(shift, alt, keyIndex));
+            }
+        }
+    }
+
+    /**
+     * Previous branch-based {@link KeyMapping} implementation used as a reference
+     */
+    private static final class LegacyKeyMapping {
+
+        private final KeyMappingValue[] keyMappingValues;
+        private final boolean hasAdditionalValues;
+        private final KeyMappingValue[] keyMappingAltValues;
+        private final boolean hasAltValues;
+        private final boolean hasAdditionalAltValues;
+
+        LegacyKeyMapping(KeyMappingValue[] keyMappingValues, KeyMappingValue[] keyMappingAltValues) {
+            this.keyMappingValues = keyMappingValues;
+            hasAdditionalValues = keyMappingValues.length > 1;
+            this.keyMappingAltValues = keyMappingAltValues;
+            hasAltValues = keyMappingAltValues != null && keyMappingAltValues.length > 0;
+            hasAdditionalAltValues = hasAltValues && keyMappingAltValues.length > 1;
+        }
+
+        int getValue(boolean shiftEnabled, boolean altEnabled, byte keyIndex) {
+            if (shiftEnabled) {
+                return altEnabled ? getAltShiftValue(keyIndex) : getShiftValue(keyIndex);
+            } else {
+                return altEnabled ? getAltValue(keyIndex) : getValue(keyIndex);
+            }
+        }
+
+        boolean hasAdditionalValues(boolean altEnabled) {
+            return altEnabled ? hasAdditionalAltValues : hasAdditionalValues;
+        }
+
+        private int getValue(byte keyIndex) {
+            int index = (keyIndex & 0xFF) % keyMappingValues.length;
+            return keyMappingValues[index].getValue();
+        }
+
+        private int getShiftValue(byte keyIndex) {
+            int index = (keyIndex & 0xFF) % keyMappingValues.length;
+            return keyMappingValues[index].getShiftValue() != 0 ? keyMappingValues[index].getShiftValue() : getValue(keyIndex);
+        }
+
+        private int getAltValue(byte keyIndex) {
+            if (hasAltValues) {
+                int index = (keyIndex & 0xFF) % keyMappingAltValues.length;
+                return keyMappingAltValues[index].getValue();
+            } else {
+                return getValue(keyIndex);
+            }
+        }
+
+        private int getAltShiftValue(byte keyIndex) {
+            if (hasAltValues) {
+                int index = (keyIndex & 0xFF) % keyMappingAltValues.length;
+                int shiftValue = keyMappingAltValues[index].getShiftValue();
+                return shiftValue != 0 ? shiftValue : getAltValue(keyIndex);
+            } else {
+                return getShiftValue(keyIndex);
+            }
+        }
+    }
+}
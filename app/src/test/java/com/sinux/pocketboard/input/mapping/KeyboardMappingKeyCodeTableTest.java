@@ -0,0 +1,72 @@
+package com.sinux.pocketboard.input.mapping;
+
+import android.view.KeyEvent;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Checks {@link KeyboardMapping} key code table of all shipped keyboard mappings
+ * against the key codes read from the mapping files
+ */
+public class KeyboardMappingKeyCodeTableTest {
+
+    private static final File MAPPINGS_DIR = new File("src/main/res/xml");
+    private static final int MAX_PROBED_KEY_CODE = KeyboardMapping.DENSE_KEY_CODE_LIMIT + 64;
+
+    @Test
+    public void shippedMappingsTest() throws Exception {
+        File[] mappingFiles = MAPPINGS_DIR.listFiles((dir, name) -> name.startsWith("keyboard_mapping_") && name.endsWith(".xml"));
+        Assert.assertNotNull(mappingFiles);
+        Assert.assertTrue(mappingFiles.length > 0);
+        Arrays.sort(mappingFiles);
+
+        for (File mappingFile : mappingFiles) {
+            String name = mappingFile.getName();
+            KeyboardMapping mapping = KeyboardMappingSerializerTest.parseMapping(mappingFile);
+            int[] expectedKeyCodes = readKeyCodes(mappingFile);
+
+            Assert.assertArrayEquals(name, expectedKeyCodes, mapping.getKeyCodes());
+
+            Map<Integer, KeyMapping> referenceMap = mapping.toMap();
+            Assert.assertEquals(name, expectedKeyCodes.length, referenceMap.size());
+            for (int keyCode = -1; keyCode <= MAX_PROBED_KEY_CODE; keyCode++) {
+                boolean mapped = Arrays.binarySearch(expectedKeyCodes, keyCode) >= 0;
+                Assert.assertEquals(name + " " + keyCode, mapped, mapping.getKeyMapping(keyCode) != null);
+                Assert.assertSame(name + " " + keyCode, referenceMap.get(keyCode), mapping.getKeyMapping(keyCode));
+            }
+        }
+    }
+
+    /**
+     * Reads the key codes independently of {@link KeyboardMappingParser}
+     *
+     * @return key codes of all Key elements in ascending order
+     */
+    private static int[] readKeyCodes(File mappingFile) throws Exception {
+        TreeSet<Integer> keyCodes = new TreeSet<>();
+        try (Reader reader = new InputStreamReader(new FileInputStream(mappingFile), StandardCharsets.UTF_8)) {
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setInput(reader);
+            for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                if (event == XmlPullParser.START_TAG && "Key".equals(parser.getName())) {
+                    String code = parser.getAttributeValue(null, "code");
+                    keyCodes.add(code.startsWith("KEYCODE_") ?
+                            KeyEvent.class.getField(code).getInt(null) : Integer.parseInt(code));
+                }
+            }
+        }
+        return keyCodes.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
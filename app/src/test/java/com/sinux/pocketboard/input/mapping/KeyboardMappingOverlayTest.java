@@ -0,0 +1,109 @@
+package com.sinux.pocketboard.input.mapping;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class KeyboardMappingOverlayTest {
+
+    private static final File MAPPINGS_DIR = new File("src/main/res/xml");
+
+    @Test
+    public void shippedOverlaysTest() throws Exception {
+        for (File mappingFile : KeyboardMappingSerializerTest.listMappingFiles()) {
+            KeyboardMapping deviceMapping = KeyboardMappingSerializerTest.parseMapping(mappingFile);
+            if (!deviceMapping.isOverlay()) {
+                continue;
+            }
+
+            String name = mappingFile.getName();
+            File baseFile = new File(MAPPINGS_DIR, name.substring(0, name.lastIndexOf('_')) + ".xml");
+            Assert.assertTrue(name, baseFile.isFile());
+            KeyboardMapping baseMapping = KeyboardMappingSerializerTest.parseMapping(baseFile);
+            Assert.assertFalse(name, baseMapping.isOverlay());
+
+            KeyboardMapping mapping = baseMapping.withOverlay(deviceMapping);
+            Assert.assertFalse(name, mapping.isOverlay());
+            Assert.assertArrayEquals(name, baseMapping.getKeyCodes(), mapping.getKeyCodes());
+            for (int keyCode : mapping.getKeyCodes()) {
+                KeyMapping expected = deviceMapping.getKeyMapping(keyCode) != null
+                        ? deviceMapping.getKeyMapping(keyCode) : baseMapping.getKeyMapping(keyCode);
+                Assert.assertSame(name + ", key " + keyCode, expected, mapping.getKeyMapping(keyCode));
+            }
+        }
+    }
+
+    @Test
+    public void overlayMergeTest() {
+        KeyMapping a = new KeyMapping(new KeyMappingValue[]{new KeyMappingValue('a', 'A')}, null);
+        KeyMapping b = new KeyMapping(new KeyMappingValue[]{new KeyMappingValue('b', 'B')}, null);
+        KeyMapping c = new KeyMapping(new KeyMappingValue[]{new KeyMappingValue('c', 'C')}, null);
+
+        Map<Integer, KeyMapping> base = new HashMap<>();
+        base.put(29, a);
+        base.put(30, b);
+        Map<Integer, KeyMapping> overlay = new HashMap<>();
+        overlay.put(30, c);
+        overlay.put(1000, a);
+
+        KeyboardMapping mapping = new KeyboardMapping(base).withOverlay(new KeyboardMapping(overlay, true));
+
+        Assert.assertArrayEquals(new int[]{29, 30, 1000}, mapping.getKeyCodes());
+        Assert.assertSame(a, mapping.getKeyMapping(29));
+        Assert.assertSame(c, mapping.getKeyMapping(30));
+        Assert.assertSame(a, mapping.getKeyMapping(1000));
+    }
+
+    @Test
+    public void internedMappingsAreSharedTest() throws Exception {
+        KeyMappingPool pool = new KeyMappingPool();
+        File[] mappingFiles = KeyboardMappingSerializerTest.listMappingFiles();
+        KeyboardMapping[] mappings = new KeyboardMapping[mappingFiles.length];
+        for (int i = 0; i < mappingFiles.length; i++) {
+            KeyboardMapping mapping = KeyboardMappingSerializerTest.parseMapping(mappingFiles[i]);
+            mappings[i] = pool.intern(mapping);
+            KeyboardMappingSerializerTest.assertMappingsEqual(mappingFiles[i].getName(), mapping, mappings[i]);
+        }
+
+        // Equal keys of different layouts must be the same instance, equal alt planes of different keys must be shared
+        Map<KeyMapping, KeyMapping> keyMappings = new HashMap<>();
+        Map<String, KeyMappingValue[]> altValues = new HashMap<>();
+        for (KeyboardMapping mapping : mappings) {
+            for (int keyCode : mapping.getKeyCodes()) {
+                KeyMapping keyMapping = mapping.getKeyMapping(keyCode);
+                KeyMapping previous = keyMappings.put(keyMapping, keyMapping);
+                if (previous != null) {
+                    Assert.assertSame(previous, keyMapping);
+                }
+
+                KeyMappingValue[] alt = keyMapping.getKeyMappingAltValues();
+                KeyMappingValue[] previousAlt = altValues.put(Arrays.toString(alt), alt);
+                if (previousAlt != null) {
+                    Assert.assertSame(previousAlt, alt);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void internedPlanesAreSharedTest() {
+        KeyMappingPool pool = new KeyMappingPool();
+        KeyMappingValue[] altValues = {new KeyMappingValue('1', 0), new KeyMappingValue('!', 0)};
+
+        Map<Integer, KeyMapping> keyMappings = new HashMap<>();
+        keyMappings.put(45, new KeyMapping(new KeyMappingValue[]{new KeyMappingValue('q', 'Q')}, altValues.clone()));
+        keyMappings.put(46, new KeyMapping(new KeyMappingValue[]{new KeyMappingValue('1', 0)}, null));
+        KeyboardMapping mapping = pool.intern(new KeyboardMapping(keyMappings));
+
+        KeyMapping q = mapping.getKeyMapping(45);
+        KeyMapping one = mapping.getKeyMapping(46);
+        Assert.assertSame(q.getKeyMappingAltValues()[0], one.getKeyMappingValues()[0]);
+        Assert.assertSame(pool.intern(new int[]{'1', '!'}), pool.intern(new int[]{'1', '!'}));
+        Assert.assertEquals('1', one.getValue(false, true, (byte) 0));
+        Assert.assertEquals('!', q.getValue(true, true, (byte) 1));
+    }
+}
@@ -60,4 +60,31 @@ public class KeyboardMappingParserTest {
         Assert.assertTrue(keyMapping.hasAdditionalValues(false));
         Assert.assertTrue(keyMapping.hasAdditionalValues(true));
     }
+
+    @Test
+    public void parseComposeSequencesTest() throws Exception {
+        String xml =
+                "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                "<KeyboardMapping>\n" +
+                "    <Key code=\"1\" value=\"e\" shiftValue=\"E\">\n" +
+                "        <Alt value=\"\u00b4\" />\n" +
+                "    </Key>\n" +
+                "    <Compose sequence=\"\u00b4e\" value=\"\u00e9\" />\n" +
+                "    <Compose sequence=\"\u00b4E\" value=\"\u00c9\" />\n" +
+                "</KeyboardMapping>";
+
+        XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        parser.setInput(new StringReader(xml));
+
+        KeyboardMapping mapping = new KeyboardMappingParser(parser).parseMapping();
+        ComposeTable composeTable = mapping.getComposeTable();
+
+        int state = composeTable.next(ComposeTable.ROOT_STATE, '\u00b4');
+        Assert.assertNotEquals(ComposeTable.NO_STATE, state);
+        Assert.assertEquals(0, composeTable.getValue(state));
+        Assert.assertEquals('\u00e9', composeTable.getValue(composeTable.next(state, 'e')));
+        Assert.assertEquals('\u00c9', composeTable.getValue(composeTable.next(state, 'E')));
+        Assert.assertEquals(ComposeTable.NO_STATE, composeTable.next(state, 'x'));
+        Assert.assertEquals(ComposeTable.NO_STATE, composeTable.next(ComposeTable.ROOT_STATE, 'e'));
+    }
 }
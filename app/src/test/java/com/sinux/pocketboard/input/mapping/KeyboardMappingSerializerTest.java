@@ -0,0 +1,91 @@
+package com.sinux.pocketboard.input.mapping;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+public class KeyboardMappingSerializerTest {
+
+    private static final File MAPPINGS_DIR = new File("src/main/res/xml");
+    private static final File COMPILED_MAPPINGS_DIR = new File("build/generated/keyboardMappings/assets/" + KeyboardMappingSerializer.ASSETS_DIR);
+
+    @Test
+    public void roundTripTest() throws Exception {
+        for (File mappingFile : listMappingFiles()) {
+            KeyboardMapping reference = parseMapping(mappingFile);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            KeyboardMappingSerializer.write(reference, out);
+            KeyboardMapping restored = KeyboardMappingSerializer.read(new ByteArrayInputStream(out.toByteArray()));
+
+            assertMappingsEqual(mappingFile.getName(), reference, restored);
+        }
+    }
+
+    @Test
+    public void compiledMappingsTest() throws Exception {
+        Assert.assertTrue("Compiled mappings are created by compileKeyboardMappings", COMPILED_MAPPINGS_DIR.isDirectory());
+
+        for (File mappingFile : listMappingFiles()) {
+            File compiledFile = new File(COMPILED_MAPPINGS_DIR,
+                    mappingFile.getName().replace(".xml", KeyboardMappingSerializer.FILE_EXTENSION));
+            Assert.assertTrue(compiledFile.getName(), compiledFile.isFile());
+
+            try (InputStream in = new FileInputStream(compiledFile)) {
+                assertMappingsEqual(mappingFile.getName(), parseMapping(mappingFile), KeyboardMappingSerializer.read(in));
+            }
+        }
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void invalidMagicTest() throws Exception {
+        KeyboardMappingSerializer.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6, 7}));
+    }
+
+    static void assertMappingsEqual(String name, KeyboardMapping expected, KeyboardMapping actual) {
+        Assert.assertEquals(name, expected.isOverlay(), actual.isOverlay());
+        Assert.assertArrayEquals(name, expected.getKeyCodes(), actual.getKeyCodes());
+        Assert.assertEquals(name, expected.getComposeTable().getSequences(), actual.getComposeTable().getSequences());
+
+        for (int keyCode : expected.getKeyCodes()) {
+            KeyMapping expectedKey = expected.getKeyMapping(keyCode);
+            KeyMapping actualKey = actual.getKeyMapping(keyCode);
+            String message = name + ", key " + keyCode;
+
+            Assert.assertEquals(message, expectedKey.hasAdditionalValues(false), actualKey.hasAdditionalValues(false));
+            Assert.assertEquals(message, expectedKey.hasAdditionalValues(true), actualKey.hasAdditionalValues(true));
+            for (int index = 0; index < 256; index++) {
+                byte keyIndex = (byte) index;
+                Assert.assertEquals(message, expectedKey.getValue(false, false, keyIndex), actualKey.getValue(false, false, keyIndex));
+                Assert.assertEquals(message, expectedKey.getValue(true, false, keyIndex), actualKey.getValue(true, false, keyIndex));
+                Assert.assertEquals(message, expectedKey.getValue(false, true, keyIndex), actualKey.getValue(false, true, keyIndex));
+                Assert.assertEquals(message, expectedKey.getValue(true, true, keyIndex), actualKey.getValue(true, true, keyIndex));
+            }
+        }
+    }
+
+    static File[] listMappingFiles() {
+        File[] mappingFiles = MAPPINGS_DIR.listFiles((dir, name) -> name.startsWith("keyboard_mapping_") && name.endsWith(".xml"));
+        Assert.assertNotNull(mappingFiles);
+        Assert.assertTrue(mappingFiles.length > 0);
+        return mappingFiles;
+    }
+
+    static KeyboardMapping parseMapping(File mappingFile) throws Exception {
+        try (Reader reader = new InputStreamReader(new FileInputStream(mappingFile), StandardCharsets.UTF_8)) {
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setInput(reader);
+            return new KeyboardMappingParser(parser).parseMapping();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.sinux.pocketboard.input.mapping;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+
+public class SymPadMappingTest {
+
+    private static final File MAPPING_FILE = new File("src/main/res/xml/sympad_mapping.xml");
+    private static final File COMPILED_MAPPING_FILE = new File("build/generated/keyboardMappings/assets/" +
+            KeyboardMappingSerializer.ASSETS_DIR + "/sympad_mapping" + KeyboardMappingSerializer.FILE_EXTENSION);
+
+    /**
+     * Previously hard-coded SymPad layout: original key code, short press key code, long press key code
+     */
+    private static final int[][] LEGACY_TRANSLATIONS = {
+            {46, 122, 0}, {49, 122, 0}, {34, 123, 0}, {38, 123, 0},
+            {45, 268, 0}, {37, 268, 0}, {51, 19, 0}, {43, 19, 0}, {33, 270, 0}, {44, 270, 0},
+            {29, 21, 0}, {39, 21, 0}, {47, 23, 0}, {40, 23, 0}, {32, 22, 0}, {67, 22, 0},
+            {54, 269, 0}, {42, 269, 0}, {52, 20, 0}, {41, 20, 0}, {31, 271, 0}, {66, 271, 0},
+            {50, 88, 89}, {62, 85, 0}, {30, 87, 90},
+            {48, 111, 0}, {53, 66, 0}, {35, 67, 0}, {36, 112, 0}
+    };
+
+    @Test
+    public void shippedMappingTest() throws Exception {
+        assertLegacyTranslations(SymPadMapping.fromKeyboardMapping(KeyboardMappingSerializerTest.parseMapping(MAPPING_FILE)));
+    }
+
+    @Test
+    public void compiledMappingTest() throws Exception {
+        Assert.assertTrue("Compiled mapping is created by compileKeyboardMappings", COMPILED_MAPPING_FILE.isFile());
+
+        try (InputStream in = new FileInputStream(COMPILED_MAPPING_FILE)) {
+            assertLegacyTranslations(SymPadMapping.fromKeyboardMapping(KeyboardMappingSerializer.read(in)));
+        }
+    }
+
+    @Test
+    public void unknownKeysTest() {
+        Assert.assertEquals(0, SymPadMapping.EMPTY.getShortPressKeyCode(46));
+        Assert.assertEquals(0, SymPadMapping.EMPTY.getLongPressKeyCode(-1));
+    }
+
+    @Test(expected = XmlPullParserException.class)
+    public void characterValuesRejectedTest() throws Exception {
+        parse("<SymPadMapping><Key code=\"46\" keyCode=\"122\"><Alt value=\"a\" /></Key></SymPadMapping>");
+    }
+
+    @Test(expected = XmlPullParserException.class)
+    public void missingKeyCodeTest() throws Exception {
+        parse("<SymPadMapping><Key code=\"46\" longPressKeyCode=\"122\" /></SymPadMapping>");
+    }
+
+    private static void assertLegacyTranslations(SymPadMapping mapping) {
+        int[] expectedShortPressKeyCodes = new int[1024];
+        int[] expectedLongPressKeyCodes = new int[1024];
+        for (int[] translation : LEGACY_TRANSLATIONS) {
+            expectedShortPressKeyCodes[translation[0]] = translation[1];
+            expectedLongPressKeyCodes[translation[0]] = translation[2];
+        }
+
+        for (int keyCode = 0; keyCode < expectedShortPressKeyCodes.length; keyCode++) {
+            Assert.assertEquals("key " + keyCode, expectedShortPressKeyCodes[keyCode], mapping.getShortPressKeyCode(keyCode));
+            Assert.assertEquals("key " + keyCode, expectedLongPressKeyCodes[keyCode], mapping.getLongPressKeyCode(keyCode));
+        }
+    }
+
+    private static KeyboardMapping parse(String xml) throws Exception {
+        XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        parser.setInput(new StringReader(xml));
+        return new KeyboardMappingParser(parser).parseMapping();
+    }
+}
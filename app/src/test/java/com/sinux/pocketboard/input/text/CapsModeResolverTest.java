@@ -0,0 +1,69 @@
+package com.sinux.pocketboard.input.text;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Locale;
+
+public class CapsModeResolverTest {
+
+    private static final int SENTENCES = CapsModeResolver.CAP_MODE_SENTENCES;
+    private static final int WORDS = CapsModeResolver.CAP_MODE_WORDS;
+    private static final int CHARACTERS = CapsModeResolver.CAP_MODE_CHARACTERS;
+
+    @Test
+    public void sentencesTest() {
+        CapsModeResolver resolver = CapsModeResolver.forLocale(Locale.ENGLISH);
+
+        Assert.assertEquals(SENTENCES, resolver.getCapsMode("", true, SENTENCES));
+        Assert.assertEquals(SENTENCES, resolver.getCapsMode("Hello. ", true, SENTENCES));
+        Assert.assertEquals(SENTENCES, resolver.getCapsMode("Really?! ", true, SENTENCES));
+        Assert.assertEquals(SENTENCES, resolver.getCapsMode("Wait… ", true, SENTENCES));
+        Assert.assertEquals(SENTENCES, resolver.getCapsMode("He said \"go.\" ", true, SENTENCES));
+        Assert.assertEquals(SENTENCES, resolver.getCapsMode("Done. (", true, SENTENCES));
+        Assert.assertEquals(SENTENCES, resolver.getCapsMode("First line\n", true, SENTENCES));
+
+        Assert.assertEquals(0, resolver.getCapsMode("Hello", true, SENTENCES));
+        Assert.assertEquals(0, resolver.getCapsMode("Hello.", true, SENTENCES));
+        Assert.assertEquals(0, resolver.getCapsMode("Hello, ", true, SENTENCES));
+        // Abbreviation
+        Assert.assertEquals(0, resolver.getCapsMode("See e.g. ", true, SENTENCES));
+    }
+
+    @Test
+    public void beginningOfDocumentTest() {
+        CapsModeResolver resolver = CapsModeResolver.forLocale(Locale.ENGLISH);
+
+        Assert.assertEquals(SENTENCES, resolver.getCapsMode("  ", true, SENTENCES));
+        // Only spaces are known, text in front of them may be anything
+        Assert.assertEquals(0, resolver.getCapsMode("  ", false, SENTENCES));
+    }
+
+    @Test
+    public void wordsAndCharactersTest() {
+        CapsModeResolver resolver = CapsModeResolver.forLocale(Locale.ENGLISH);
+
+        Assert.assertEquals(WORDS, resolver.getCapsMode("John ", true, SENTENCES | WORDS));
+        Assert.assertEquals(0, resolver.getCapsMode("Jo", true, SENTENCES | WORDS));
+        Assert.assertEquals(CHARACTERS, resolver.getCapsMode("AB", true, SENTENCES | CHARACTERS));
+        Assert.assertEquals(SENTENCES | WORDS | CHARACTERS, resolver.getCapsMode("", true, SENTENCES | WORDS | CHARACTERS));
+    }
+
+    @Test
+    public void localeTest() {
+        CapsModeResolver english = CapsModeResolver.forLocale(Locale.ENGLISH);
+        CapsModeResolver spanish = CapsModeResolver.forLocale(new Locale("es", "ES"));
+        CapsModeResolver russian = CapsModeResolver.forLocale(new Locale("ru", "RU"));
+
+        Assert.assertEquals(SENTENCES, spanish.getCapsMode("Hola. ¿", true, SENTENCES));
+        Assert.assertEquals(0, english.getCapsMode("Hola. ¿", true, SENTENCES));
+        Assert.assertEquals(SENTENCES, russian.getCapsMode("Он сказал: «Да». «", true, SENTENCES));
+    }
+
+    @Test
+    public void requestedCapsModesTest() {
+        // TYPE_CLASS_TEXT | TYPE_TEXT_FLAG_CAP_WORDS | TYPE_TEXT_VARIATION_PERSON_NAME
+        Assert.assertEquals(SENTENCES | WORDS, CapsModeResolver.getRequestedCapsModes(0x00000001 | 0x00002000 | 0x00000060));
+        Assert.assertEquals(SENTENCES, CapsModeResolver.getRequestedCapsModes(0x00000001));
+    }
+}
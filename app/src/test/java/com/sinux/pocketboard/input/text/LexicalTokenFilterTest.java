@@ -0,0 +1,21 @@
+package com.sinux.pocketboard.input.text;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LexicalTokenFilterTest {
+
+    @Test
+    public void wordsTest() {
+        for (String token : new String[]{"hello", "\u043a\u0442\u043e-\u0442\u043e", "don't", "mp3", "2nd", "\uD835\uDC00\uD835\uDC01"}) {
+            Assert.assertTrue(token, LexicalTokenFilter.isLexical(token));
+        }
+    }
+
+    @Test
+    public void nonLexicalTokensTest() {
+        for (String token : new String[]{"", "12345", "3.14", "--", "a3f9c2e1", "aGVsbG8x2Q", "user42name"}) {
+            Assert.assertFalse(token, LexicalTokenFilter.isLexical(token));
+        }
+    }
+}
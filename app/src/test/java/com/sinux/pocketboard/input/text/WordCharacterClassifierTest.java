@@ -0,0 +1,58 @@
+package com.sinux.pocketboard.input.text;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Locale;
+
+public class WordCharacterClassifierTest {
+
+    @Test
+    public void lettersAndDigitsTest() {
+        WordCharacterClassifier classifier = WordCharacterClassifier.withExclusions("");
+
+        for (int codePoint : new int[]{'a', 'Z', '7', 0x0436, 0x00E9, 0x4E2D, 0x1D400, 0x20000, 0x1D7CE}) {
+            Assert.assertTrue(Integer.toHexString(codePoint), classifier.isWordCharacter(codePoint));
+        }
+        for (int codePoint : new int[]{' ', '-', '.', '\'', 0x2019, 0x1F600, 0x200D, -1}) {
+            Assert.assertFalse(Integer.toHexString(codePoint), classifier.isWordCharacter(codePoint));
+        }
+    }
+
+    @Test
+    public void sameAsCharacterClassesTest() {
+        WordCharacterClassifier classifier = WordCharacterClassifier.withExclusions("");
+        for (int codePoint = 0; codePoint <= Character.MAX_CODE_POINT; codePoint++) {
+            if (classifier.isWordCharacter(codePoint) != Character.isLetterOrDigit(codePoint)) {
+                Assert.fail(Integer.toHexString(codePoint));
+            }
+        }
+    }
+
+    @Test
+    public void exclusionsTest() {
+        WordCharacterClassifier classifier = WordCharacterClassifier.withExclusions("-😀");
+
+        Assert.assertTrue(classifier.isWordCharacter('-'));
+        Assert.assertTrue(classifier.isWordCharacter(0x1F600));
+        Assert.assertFalse(classifier.isWordCharacter(0x1F601));
+        Assert.assertTrue(classifier.isWordCharacter(0x10000));
+    }
+
+    @Test
+    public void localeTest() {
+        WordCharacterClassifier english = WordCharacterClassifier.forLocale(Locale.US);
+        WordCharacterClassifier russian = WordCharacterClassifier.forLocale(new Locale("ru"));
+        WordCharacterClassifier spanish = WordCharacterClassifier.forLocale(new Locale("es", "ES"));
+
+        Assert.assertTrue(english.isWordCharacter('\''));
+        Assert.assertTrue(english.isWordCharacter(0x2019));
+        Assert.assertFalse(russian.isWordCharacter('\''));
+        Assert.assertFalse(spanish.isWordCharacter('\''));
+        Assert.assertTrue(russian.isWordCharacter('-'));
+
+        // Classifiers are built once per exclusion set
+        Assert.assertSame(russian, spanish);
+        Assert.assertSame(english, WordCharacterClassifier.forLocale(Locale.UK));
+    }
+}
@@ -0,0 +1,141 @@
+package com.sinux.pocketboard.utils;
+
+import com.sinux.pocketboard.input.text.WordCharacterClassifier;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares reverse scanners of {@link CharacterUtils} with the array based implementations they replaced.
+ * Results must be the same for every prefix of the sample texts
+ */
+public class CharacterUtilsScannersTest {
+
+    private static final String[] SAMPLES = {
+            "The quick brown fox jumps over the lazy dog",
+            "Съешь же ещё этих мягких французских булок, да выпей чаю",
+            "well-known don't ¿qué tal?",
+            "Emoji 🏃🏻‍♀️ and flags 🇺🇦 🏴󠁧󠁢󠁥󠁮󠁧󠁿",
+            "Family 👨‍👩‍👧‍👦 math 𝐀𝐁 end"
+    };
+    private static final int WARMUP_ROUNDS = 2_000;
+    private static final int MEASURED_ROUNDS = 2_000;
+
+    private static final List<Integer> REFERENCE_VARIANT_SELECTORS = Arrays.asList(0xFE0E, 0xFE0F);
+    private static final List<Integer> REFERENCE_SUBDIVISION_FLAG_PARTS = Arrays.asList(0xE0062, 0xE0063, 0xE0065, 0xE0067, 0xE006C, 0xE006E, 0xE0073, 0xE0074, 0xE0077, 0xE007F);
+
+    private final WordCharacterClassifier classifier = WordCharacterClassifier.withExclusions("-'");
+
+    @Test
+    public void sameResultsTest() {
+        for (String sample : SAMPLES) {
+            for (int end = 0; end <= sample.length(); end++) {
+                CharSequence prefix = sample.subSequence(0, end);
+                Assert.assertEquals(prefix.toString(), referenceLastCharacterLength(prefix), CharacterUtils.getLastCharacterLength(prefix));
+                Assert.assertEquals(prefix.toString(), referenceLastWordStartIndex(prefix), CharacterUtils.getLastWordStartIndex(prefix, classifier));
+            }
+        }
+    }
+
+    @Test
+    public void allocationTest() {
+        runReference(WARMUP_ROUNDS);
+        runScanners(WARMUP_ROUNDS);
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+
+        long referenceBytes = getAllocatedBytes(threadMXBean);
+        long referenceResult = runReference(MEASURED_ROUNDS);
+        referenceBytes = getAllocatedBytes(threadMXBean) - referenceBytes;
+
+        long scannerBytes = getAllocatedBytes(threadMXBean);
+        long scannerResult = runScanners(MEASURED_ROUNDS);
+        scannerBytes = getAllocatedBytes(threadMXBean) - scannerBytes;
+
+        Assert.assertEquals(referenceResult, scannerResult);
+        // Reference implementations allocate arrays and boxed code points on every lookup, scanners don't
+        Assert.assertTrue(scannerBytes < referenceBytes / 10);
+    }
+
+    private long runReference(int rounds) {
+        long result = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String sample : SAMPLES) {
+                result += referenceLastCharacterLength(sample);
+                result += referenceLastWordStartIndex(sample);
+            }
+        }
+        return result;
+    }
+
+    private long runScanners(int rounds) {
+        long result = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String sample : SAMPLES) {
+                result += CharacterUtils.getLastCharacterLength(sample);
+                result += CharacterUtils.getLastWordStartIndex(sample, classifier);
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long getAllocatedBytes(ThreadMXBean threadMXBean) {
+        return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static int referenceLastCharacterLength(CharSequence str) {
+        if (str.length() == 0)
+            return 0;
+
+        int length = str.length();
+        int result = 0;
+        int i = length;
+        boolean afterModifier = false;
+        boolean afterFlagPart = false;
+
+        while (i > 0) {
+            int codePoint = Character.codePointBefore(str, i);
+
+            if (i == length || afterModifier || afterFlagPart || codePoint == CharacterUtils.ZWJ) {
+                int cpLength = Character.charCount(codePoint);
+                result += cpLength;
+
+                afterModifier = codePoint == CharacterUtils.ZWJ ||
+                        REFERENCE_VARIANT_SELECTORS.contains(codePoint) ||
+                        CharacterUtils.EMOJI_FITZPATRICK_MODIFIERS.contains(codePoint) ||
+                        Character.UnicodeBlock.of(codePoint) == Character.UnicodeBlock.COMBINING_MARKS_FOR_SYMBOLS;
+                afterFlagPart = (i == length && CharacterUtils.isCommonFlagPart(codePoint)) ||
+                        REFERENCE_SUBDIVISION_FLAG_PARTS.contains(codePoint);
+
+                i -= cpLength;
+            } else {
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    private int referenceLastWordStartIndex(CharSequence str) {
+        final int[] codePoints = str.codePoints().toArray();
+        int charCounter = str.length();
+
+        for (int i = codePoints.length - 1; i >= 0; i--) {
+            int codePoint = codePoints[i];
+            if (!classifier.isWordCharacter(codePoint)) {
+                return charCounter;
+            }
+            charCounter -= Character.charCount(codePoint);
+        }
+
+        return 0;
+    }
+}
@@ -1,5 +1,7 @@
 package com.sinux.pocketboard.utils;
 
+import com.sinux.pocketboard.input.text.WordCharacterClassifier;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -36,10 +38,72 @@ public class CharacterUtilsTest {
         Assert.assertEquals(1, CharacterUtils.getLastCharacterLength(str + "x"));
     }
 
+    @Test
+    public void reverseScannersTest() {
+        String str = "ab \uD83C\uDDFA\uD83C\uDDE6x";
+        int end = str.length();
+        end = CharacterUtils.getCharacterStartBefore(str, end);
+        Assert.assertEquals(7, end);
+        end = CharacterUtils.getCharacterStartBefore(str, end);
+        Assert.assertEquals(3, end);
+        Assert.assertEquals(0, CharacterUtils.getWordStartBefore(str, 2, WordCharacterClassifier.withExclusions("")));
+        Assert.assertEquals(3, CharacterUtils.getWordStartBefore(str, 3, WordCharacterClassifier.withExclusions("")));
+    }
+
+    @Test
+    public void deletionSpansTest() {
+        WordCharacterClassifier classifier = WordCharacterClassifier.withExclusions("");
+        String str = "one two, three \uD83C\uDDFA\uD83C\uDDE6";
+        Assert.assertEquals(9, CharacterUtils.getWordsStartBefore(str, str.length(), 1, classifier));
+        Assert.assertEquals(4, CharacterUtils.getWordsStartBefore(str, str.length(), 2, classifier));
+        Assert.assertEquals(0, CharacterUtils.getWordsStartBefore(str, str.length(), 5, classifier));
+        Assert.assertEquals(0, CharacterUtils.getWordsStartBefore(" ", 1, 1, classifier));
+
+        String lines = "first\nsecond\n";
+        Assert.assertEquals(6, CharacterUtils.getLineStartBefore(lines, lines.length()));
+        Assert.assertEquals(6, CharacterUtils.getLineStartBefore(lines, 9));
+        Assert.assertEquals(0, CharacterUtils.getLineStartBefore(lines, 6));
+        Assert.assertEquals(0, CharacterUtils.getLineStartBefore(lines, 0));
+    }
+
+    @Test
+    public void getChunkEndTest() {
+        String family = "\uD83D\uDC68\u200D\uD83D\uDC69\u200D\uD83D\uDC67";
+        String str = "ab" + family + "cd";
+        // Chunk never ends inside the ZWJ sequence
+        for (int length = 3; length < 2 + family.length(); length++) {
+            Assert.assertEquals(String.valueOf(length), 2, CharacterUtils.getChunkEnd(str, 0, length));
+        }
+        Assert.assertEquals(2 + family.length(), CharacterUtils.getChunkEnd(str, 2, family.length()));
+        Assert.assertEquals(str.length(), CharacterUtils.getChunkEnd(str, 2, 100));
+
+        // Character longer than the chunk is split between code points only
+        Assert.assertEquals(2, CharacterUtils.getChunkEnd(family, 0, 1));
+        Assert.assertEquals(3, CharacterUtils.getChunkEnd(family, 0, 3));
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("x\uD83D\uDE03 ").append(family);
+        }
+        StringBuilder joined = new StringBuilder();
+        int start = 0;
+        while (start < text.length()) {
+            int end = CharacterUtils.getChunkEnd(text, start, 64);
+            Assert.assertTrue(end > start && end - start <= 64);
+            Assert.assertFalse(Character.isLowSurrogate(text.charAt(end - 1)) && end < text.length() && Character.isLowSurrogate(text.charAt(end)));
+            Assert.assertNotEquals(CharacterUtils.ZWJ, (int) text.charAt(end - 1));
+            joined.append(text, start, end);
+            start = end;
+        }
+        Assert.assertEquals(text.toString(), joined.toString());
+    }
+
     @Test
     public void getLastWordStartIndexTest() {
-        Assert.assertEquals(0, CharacterUtils.getLastWordStartIndex("word", ""));
-        Assert.assertEquals(7, CharacterUtils.getLastWordStartIndex("second word", ""));
-        Assert.assertEquals(7, CharacterUtils.getLastWordStartIndex("emoji\uD83D\uDE03", ""));
+        WordCharacterClassifier classifier = WordCharacterClassifier.withExclusions("");
+        Assert.assertEquals(0, CharacterUtils.getLastWordStartIndex("word", classifier));
+        Assert.assertEquals(7, CharacterUtils.getLastWordStartIndex("second word", classifier));
+        Assert.assertEquals(7, CharacterUtils.getLastWordStartIndex("emoji\uD83D\uDE03", classifier));
+        Assert.assertEquals(0, CharacterUtils.getLastWordStartIndex("well-known", WordCharacterClassifier.withExclusions("-")));
     }
 }
@@ -0,0 +1,32 @@
+package com.sinux.pocketboard.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CodePointStringsTest {
+
+    @Test
+    public void latinTest() {
+        Assert.assertEquals("a", CodePointStrings.get('a'));
+        Assert.assertSame(CodePointStrings.get('a'), CodePointStrings.get('a'));
+        Assert.assertSame(CodePointStrings.get(0xE9), CodePointStrings.get(0xE9));
+    }
+
+    @Test
+    public void registeredCodePointsTest() {
+        int cyrillic = 0x0436;
+        int emoji = 0x1F600;
+        Assert.assertEquals("ж", CodePointStrings.get(cyrillic));
+
+        CodePointStrings.register(new int[]{cyrillic, 0, emoji, cyrillic, -1});
+        Assert.assertSame(CodePointStrings.get(cyrillic), CodePointStrings.get(cyrillic));
+        Assert.assertEquals("😀", CodePointStrings.get(emoji));
+        Assert.assertSame(CodePointStrings.get(emoji), CodePointStrings.get(emoji));
+
+        // Already cached strings are kept
+        String cached = CodePointStrings.get(cyrillic);
+        CodePointStrings.register(new int[]{0x0437, cyrillic});
+        Assert.assertSame(cached, CodePointStrings.get(cyrillic));
+        Assert.assertEquals("з", CodePointStrings.get(0x0437));
+    }
+}